@@ -19,3 +19,8 @@
 # If you keep the line number information, uncomment this to
 # hide the original source file name.
 #-renamesourcefileattribute SourceFile
+
+# ViewModelFactoryIndex implementations are generated by viewmodel-compiler (one per module).
+# The application module's index is loaded by its fixed name through Class.forName and calls
+# the library modules' indexes directly, so only the root index must keep its name.
+-keep class android.arch.lifecycle.GeneratedViewModelFactoryIndex { <init>(); }
@@ -0,0 +1,151 @@
+package android.arch.lifecycle;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.support.annotation.AnyThread;
+import android.support.annotation.Nullable;
+import android.view.Choreographer;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 给高频更新（传感器、下载进度、边输入边搜索）用的 LiveData：任意线程都可以无锁地 {@link #update}，
+ * 每一帧只保留最新的值，最多在每一帧开始时向观察者分发一次。
+ * <p>
+ * MutableLiveData 的 postValue 每次都要唤醒主线程（setValue 则每次都分发），
+ * 每秒几百次更新就是几百次分发和界面重新绑定；这里一帧内的多次更新合并成一次。
+ * API 16 以上跟随 Choreographer 的帧回调，API 15 用 Handler 对齐到下一个 16ms；
+ * 两者都可以在更新的线程上直接安排，不需要先切到主线程，每帧只唤醒主线程一次。
+ * <pre>
+ * public class DownloadViewModel extends ViewModel {
+ *     private final FrameCoalescingLiveData&lt;Progress&gt; mProgress = new FrameCoalescingLiveData&lt;&gt;();
+ *
+ *     void onBytesReceived(Progress progress) { // 下载线程
+ *         mProgress.update(progress);
+ *     }
+ * }
+ * </pre>
+ */
+public class FrameCoalescingLiveData<T> extends LiveData<T> {
+
+    private static final long FRAME_INTERVAL_MILLIS = 16;
+
+    // 没有等待分发的值
+    private static final Object NOT_SET = new Object();
+
+    // 等待在下一帧分发的最新值；从 NOT_SET 变成其他值的那次 update 负责安排下一帧
+    private final AtomicReference<Object> mPending = new AtomicReference<>(NOT_SET);
+
+    private final AtomicLong mUpdateCount = new AtomicLong();
+    private final AtomicLong mDispatchCount = new AtomicLong();
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    private final Runnable mDispatch = new Runnable() {
+        @Override
+        public void run() {
+            dispatchPending();
+        }
+    };
+
+    // API 16 以上才会创建
+    private final Object mFrameScheduler = Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN
+            ? new FrameScheduler(mDispatch) : null;
+
+    private final Runnable mScheduleFrame = new Runnable() {
+        @Override
+        public void run() {
+            scheduleFrame();
+        }
+    };
+
+    /**
+     * 在任意线程更新值，下一帧分发；下一帧之前的再次更新会覆盖这个值
+     */
+    @AnyThread
+    public void update(@Nullable T value) {
+        mUpdateCount.incrementAndGet();
+        if (mPending.getAndSet(value) == NOT_SET) {
+            scheduleFrame();
+        }
+    }
+
+    /**
+     * @return update 的总次数
+     */
+    public long getUpdateCount() {
+        return mUpdateCount.get();
+    }
+
+    /**
+     * @return 实际分发的次数，getUpdateCount() 减去它就是合并掉的更新次数
+     */
+    public long getDispatchCount() {
+        return mDispatchCount.get();
+    }
+
+    // 任意线程
+    private void scheduleFrame() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            if (!((FrameScheduler) mFrameScheduler).postFrame()) {
+                // 进程中还没有在主线程上拿到过 Choreographer，只有这一次要先切到主线程
+                mMainHandler.post(mScheduleFrame);
+            }
+        } else {
+            long now = SystemClock.uptimeMillis();
+            mMainHandler.postDelayed(mDispatch,
+                    FRAME_INTERVAL_MILLIS - now % FRAME_INTERVAL_MILLIS);
+        }
+    }
+
+    // 主线程
+    private void dispatchPending() {
+        Object value = mPending.getAndSet(NOT_SET);
+        if (value != NOT_SET) {
+            mDispatchCount.incrementAndGet();
+            //noinspection unchecked
+            setValue((T) value);
+        }
+    }
+
+    /**
+     * Choreographer 只在 API 16 以上存在，单独放在一个类里，API 15 上不会加载
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private static final class FrameScheduler implements Choreographer.FrameCallback {
+        // 主线程的 Choreographer：getInstance() 返回的是当前线程的实例，只能在主线程上获取，
+        // 拿到之后 postFrameCallback 可以在任意线程调用
+        private static volatile Choreographer sMainChoreographer;
+
+        private final Runnable mDispatch;
+
+        FrameScheduler(Runnable dispatch) {
+            mDispatch = dispatch;
+        }
+
+        /**
+         * @return 是否安排上了；不在主线程并且还没有拿到主线程的 Choreographer 时返回 false
+         */
+        boolean postFrame() {
+            Choreographer choreographer = sMainChoreographer;
+            if (choreographer == null) {
+                if (Looper.myLooper() != Looper.getMainLooper()) {
+                    return false;
+                }
+                choreographer = Choreographer.getInstance();
+                sMainChoreographer = choreographer;
+            }
+            choreographer.postFrameCallback(this);
+            return true;
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            mDispatch.run();
+        }
+    }
+}
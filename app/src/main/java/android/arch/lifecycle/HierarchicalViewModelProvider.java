@@ -0,0 +1,114 @@
+package android.arch.lifecycle;
+
+import android.support.annotation.MainThread;
+import android.support.annotation.NonNull;
+import android.support.v4.app.Fragment;
+import android.support.v4.app.FragmentActivity;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * 按层级查找 ViewModel 的 ViewModelProvider：先找 Fragment 自己的 ViewModelStore，
+ * 再依次找父 Fragment 的、最后找 Activity 的 ViewModelStore，找到就直接用，都没有才在 Fragment 自己的 store 中创建。
+ * <p>
+ * 子 Fragment 不需要知道 ViewModel 是 Activity 还是父 Fragment 创建的，也就不会再重复创建一份、重复加载数据。
+ * 找到的结果按 key 缓存在 Fragment 的 ViewModelStore 中，之后的 get 不用再遍历层级。
+ * 查找时只看父级已有的 store，不会为父 Fragment / Activity 创建 HolderFragment。
+ */
+public class HierarchicalViewModelProvider extends ViewModelProvider {
+
+    private final Fragment mFragment;
+
+    public HierarchicalViewModelProvider(@NonNull Fragment fragment, @NonNull Factory factory) {
+        super(ViewModelStores.of(fragment), factory);
+        mFragment = fragment;
+    }
+
+    @NonNull
+    @MainThread
+    @Override
+    public <T extends ViewModel> T get(@NonNull String key, @NonNull Class<T> modelClass) {
+        T viewModel = resolve(key, modelClass);
+        if (viewModel != null) {
+            return viewModel;
+        }
+        // 层级中都没有，在 Fragment 自己的 store 中创建
+        viewModel = super.get(key, modelClass);
+        getViewModelStore().resolutions().put(key, getViewModelStore());
+        return viewModel;
+    }
+
+    /**
+     * 同 {@link ViewModelProvider#getAsync(String, Class, Executor)}，同样按层级查找：
+     * 查找要访问 Fragment，在调用线程上完成，层级中都没有时才交给 executor 在 Fragment 自己的 store 中创建
+     */
+    @NonNull
+    @MainThread
+    @Override
+    public <T extends ViewModel> Future<T> getAsync(@NonNull String key,
+            @NonNull Class<T> modelClass, @NonNull Executor executor) {
+        final T viewModel = resolve(key, modelClass);
+        if (viewModel == null) {
+            Future<T> future = super.getAsync(key, modelClass, executor);
+            // 创建完成之前的 get 在自己的 store 中等待这次创建的结果
+            getViewModelStore().resolutions().put(key, getViewModelStore());
+            return future;
+        }
+        FutureTask<T> task = new FutureTask<>(new Callable<T>() {
+            @Override
+            public T call() {
+                return viewModel;
+            }
+        });
+        task.run();
+        return task;
+    }
+
+    /**
+     * 在 Fragment 自己、父 Fragment 和 Activity 已有的 store 中查找
+     *
+     * @return ViewModel，层级中都没有时返回 null
+     */
+    private <T extends ViewModel> T resolve(String key, Class<T> modelClass) {
+        ViewModelStore ownStore = getViewModelStore();
+        ConcurrentHashMap<String, ViewModelStore> resolutions = ownStore.resolutions();
+        ViewModelStore resolved = resolutions.get(key);
+        if (resolved != null) {
+            // 经过 store 的访问记录，命中缓存也会更新回收顺序和查找统计
+            T viewModel = resolved.getExisting(key, modelClass);
+            if (viewModel != null) {
+                return viewModel;
+            }
+            // 缓存的 store 已经没有这个 ViewModel 了（例如被 clear），重新查找
+            resolutions.remove(key);
+        }
+
+        T viewModel = find(ownStore, key, modelClass);
+        for (Fragment parent = mFragment.getParentFragment(); parent != null && viewModel == null;
+                parent = parent.getParentFragment()) {
+            viewModel = find(ViewModelStores.peek(parent), key, modelClass);
+        }
+        if (viewModel == null) {
+            FragmentActivity activity = mFragment.getActivity();
+            if (activity != null) {
+                viewModel = find(ViewModelStores.peek(activity), key, modelClass);
+            }
+        }
+        return viewModel;
+    }
+
+    private <T extends ViewModel> T find(ViewModelStore store, String key, Class<T> modelClass) {
+        if (store == null) {
+            return null;
+        }
+        T viewModel = store.getExisting(key, modelClass);
+        if (viewModel != null) {
+            getViewModelStore().resolutions().put(key, store);
+        }
+        return viewModel;
+    }
+}
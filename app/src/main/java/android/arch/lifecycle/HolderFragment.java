@@ -12,8 +12,11 @@ import android.support.v4.app.FragmentManager;
 import android.support.v4.app.FragmentManager.FragmentLifecycleCallbacks;
 import android.util.Log;
 
+import java.lang.ref.WeakReference;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.WeakHashMap;
 
 
 /**
@@ -32,6 +35,9 @@ public class HolderFragment extends Fragment implements ViewModelStoreOwner {
     @RestrictTo(RestrictTo.Scope.LIBRARY_GROUP)
     public static final String HOLDER_TAG = "android.arch.lifecycle.state.StateProviderHolderFragment";
 
+    // onSaveInstanceState 中保存 ViewModel 状态快照的 key
+    private static final String VIEW_MODEL_STATE_KEY = "android.arch.lifecycle.HolderFragment.ViewModelState";
+
     // TODO 一句话总结`ViewModel`是怎么被存储的:
     // 答： `ViewModel`是存储在当前`Activity / Fragment` 的 `HolderFragment` 中的`ViewModelStore`的HashMap中，
     // 我们可以`get`,`put`或者在`Activity / Fragment `销毁的时候`HolderFragment`会跟随销毁，
@@ -58,16 +64,31 @@ public class HolderFragment extends Fragment implements ViewModelStoreOwner {
     public void onCreate(@Nullable Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         sHolderFragmentManager.holderFragmentCreated(this);
+        Fragment parent = getParentFragment();
+        mViewModelStore.setOwnerName(parent != null
+                ? parent.getClass().getName() : getActivity().getClass().getName());
+        ViewModelStateSaver.initSpillDirectory(getContext());
+        if (savedInstanceState != null) {
+            // 进程被杀后重建：配置改变时 HolderFragment 被保留，不会带着 savedInstanceState 重新 onCreate
+            ViewModelStateSaver.restore(mViewModelStore,
+                    savedInstanceState.getByteArray(VIEW_MODEL_STATE_KEY), this);
+        }
     }
 
     @Override
     public void onSaveInstanceState(Bundle outState) {
         super.onSaveInstanceState(outState);
+        // 只有实现了 SavedStateViewModel 的 ViewModel 会被保存，状态没变化时直接复用上一次的快照
+        byte[] state = mViewModelStore.saveState();
+        if (state != null) {
+            outState.putByteArray(VIEW_MODEL_STATE_KEY, state);
+        }
     }
 
     @Override
     public void onDestroy() {
         super.onDestroy();
+        sHolderFragmentManager.holderFragmentDestroyed(this);
         mViewModelStore.clear(); // 清空 Activity 或者 Fragment 中的 ViewModel
     }
 
@@ -93,16 +114,35 @@ public class HolderFragment extends Fragment implements ViewModelStoreOwner {
         return sHolderFragmentManager.holderFragmentFor(fragment);
     }
 
+    /**
+     * 返回 activity 已有的 HolderFragment，没有时返回 null，不会创建
+     */
+    static HolderFragment peekHolderFragmentFor(FragmentActivity activity) {
+        return sHolderFragmentManager.peekHolderFragmentFor(activity);
+    }
+
+    /**
+     * 返回 fragment 已有的 HolderFragment，没有时返回 null，不会创建
+     */
+    static HolderFragment peekHolderFragmentFor(Fragment fragment) {
+        return sHolderFragmentManager.peekHolderFragmentFor(fragment);
+    }
+
     // 全局单例
     @SuppressWarnings("WeakerAccess")
     static class HolderFragmentManager {
         private Map<Activity, HolderFragment> mNotCommittedActivityHolders = new HashMap<>();
         private Map<Fragment, HolderFragment> mNotCommittedFragmentHolders = new HashMap<>();
 
+        // Activity / Fragment -> HolderFragment 的查找缓存，重复的 ViewModelProviders.of 不用再
+        // findFragmentByTag 遍历 Fragment 列表。key 和 value 都是弱引用，不会泄漏 Activity / Fragment
+        private final Map<Object, WeakReference<HolderFragment>> mHolderCache = new WeakHashMap<>();
+
         private ActivityLifecycleCallbacks mActivityCallbacks =
                 new EmptyActivityLifecycleCallbacks() {
                     @Override
                     public void onActivityDestroyed(Activity activity) {
+                        mHolderCache.remove(activity);
                         HolderFragment fragment = mNotCommittedActivityHolders.remove(activity);
                         if (fragment != null) {
                             Log.e(LOG_TAG, "Failed to save a ViewModel for " + activity);
@@ -112,11 +152,15 @@ public class HolderFragment extends Fragment implements ViewModelStoreOwner {
 
         private boolean mActivityCallbacksIsAdded = false;
 
+        // 创建过的 HolderFragment 数量，只用于监控埋点
+        private int mCreatedCount;
+
         private FragmentLifecycleCallbacks mParentDestroyedCallback =
                 new FragmentLifecycleCallbacks() {
                     @Override
                     public void onFragmentDestroyed(FragmentManager fm, Fragment parentFragment) {
                         super.onFragmentDestroyed(fm, parentFragment);
+                        mHolderCache.remove(parentFragment);
                         HolderFragment fragment = mNotCommittedFragmentHolders.remove(
                                 parentFragment);
                         if (fragment != null) {
@@ -136,10 +180,33 @@ public class HolderFragment extends Fragment implements ViewModelStoreOwner {
             }
         }
 
-        private static HolderFragment findHolderFragment(FragmentManager manager) {
+        void holderFragmentDestroyed(HolderFragment holderFragment) {
+            Iterator<WeakReference<HolderFragment>> iterator = mHolderCache.values().iterator();
+            while (iterator.hasNext()) {
+                HolderFragment cached = iterator.next().get();
+                if (cached == null || cached == holderFragment) {
+                    iterator.remove();
+                }
+            }
+        }
+
+        private HolderFragment cachedHolderFragment(Object owner) {
+            WeakReference<HolderFragment> reference = mHolderCache.get(owner);
+            return reference == null ? null : reference.get();
+        }
+
+        private void cacheHolderFragment(Object owner, HolderFragment holder) {
+            mHolderCache.put(owner, new WeakReference<>(holder));
+        }
+
+        private static void checkNotDestroyed(FragmentManager manager) {
             if (manager.isDestroyed()) {
                 throw new IllegalStateException("Can't access ViewModels from onDestroy");
             }
+        }
+
+        private static HolderFragment findHolderFragment(FragmentManager manager) {
+            checkNotDestroyed(manager);
 
             Fragment fragmentByTag = manager.findFragmentByTag(HOLDER_TAG);
             if (fragmentByTag != null && !(fragmentByTag instanceof HolderFragment)) {
@@ -149,19 +216,77 @@ public class HolderFragment extends Fragment implements ViewModelStoreOwner {
             return (HolderFragment) fragmentByTag;
         }
 
-        private static HolderFragment createHolderFragment(FragmentManager fragmentManager) {
+        private HolderFragment createHolderFragment(FragmentManager fragmentManager) {
+            mCreatedCount++;
             HolderFragment holder = new HolderFragment();
             fragmentManager.beginTransaction().add(holder, HOLDER_TAG).commitAllowingStateLoss();
             return holder;
         }
 
+        HolderFragment peekHolderFragmentFor(FragmentActivity activity) {
+            HolderFragment holder = cachedHolderFragment(activity);
+            if (holder == null) {
+                holder = findHolderFragment(activity.getSupportFragmentManager());
+            }
+            return holder != null ? holder : mNotCommittedActivityHolders.get(activity);
+        }
+
+        HolderFragment peekHolderFragmentFor(Fragment parentFragment) {
+            HolderFragment holder = cachedHolderFragment(parentFragment);
+            if (holder == null) {
+                holder = findHolderFragment(parentFragment.getChildFragmentManager());
+            }
+            return holder != null ? holder : mNotCommittedFragmentHolders.get(parentFragment);
+        }
+
         HolderFragment holderFragmentFor(FragmentActivity activity) {
+            ViewModelMetricsListener metrics = ViewModelMetrics.listener();
+            if (metrics == null) {
+                return lookupHolderFragment(activity);
+            }
+            long start = System.nanoTime();
+            boolean cached = cachedHolderFragment(activity) != null;
+            int created = mCreatedCount;
+            HolderFragment holder = lookupHolderFragment(activity);
+            metrics.onHolderFragmentLookup(cached, created != mCreatedCount,
+                    System.nanoTime() - start);
+            return holder;
+        }
+
+        HolderFragment holderFragmentFor(Fragment parentFragment) {
+            ViewModelMetricsListener metrics = ViewModelMetrics.listener();
+            if (metrics == null) {
+                return lookupHolderFragment(parentFragment);
+            }
+            long start = System.nanoTime();
+            boolean cached = cachedHolderFragment(parentFragment) != null;
+            int created = mCreatedCount;
+            HolderFragment holder = lookupHolderFragment(parentFragment);
+            metrics.onHolderFragmentLookup(cached, created != mCreatedCount,
+                    System.nanoTime() - start);
+            return holder;
+        }
+
+        private HolderFragment lookupHolderFragment(FragmentActivity activity) {
             // 获取 Activity 的 FragmentManager
             FragmentManager fm = activity.getSupportFragmentManager();
+            checkNotDestroyed(fm);
+            // 先查缓存，命中时不用遍历 Fragment 列表
+            HolderFragment holder = cachedHolderFragment(activity);
+            if (holder != null) {
+                return holder;
+            }
+            // 在 Application 中注册一个所有 Activity 生命周期回调监听，这里只会注册一次
+            // 这里注册 Activity 生命周期监听的目的是在 Activity 销毁的时候好移除 Map<Activity, HolderFragment> 和查找缓存中的对应数据
+            if (!mActivityCallbacksIsAdded) {
+                mActivityCallbacksIsAdded = true;
+                activity.getApplication().registerActivityLifecycleCallbacks(mActivityCallbacks);
+            }
             // 通过 HOLDER_TAG 在 FragmentManager 中需要 HolderFragment
-            HolderFragment holder = findHolderFragment(fm);
+            holder = findHolderFragment(fm);
             // 获得的 HolderFragment 不为空就返回
             if (holder != null) {
+                cacheHolderFragment(activity, holder);
                 return holder;
             }
 
@@ -173,25 +298,28 @@ public class HolderFragment extends Fragment implements ViewModelStoreOwner {
                 return holder;
             }
 
-            // 在 Application 中注册一个所有 Activity 生命周期回调监听，这里只会注册一次
-            // 这里注册 Activity 生命周期监听的目的是在 Activity 销毁的时候好移除 Map<Activity, HolderFragment> 中的对应数据
-            if (!mActivityCallbacksIsAdded) {
-                mActivityCallbacksIsAdded = true;
-                activity.getApplication().registerActivityLifecycleCallbacks(mActivityCallbacks);
-            }
-
             // new HolderFragment() 并通过fm添加到 Activity 并返回
             holder = createHolderFragment(fm);
+            // 新的 ViewModelStore 接管为这次启动提前创建的 ViewModel
+            ViewModelPrefetcher.adoptInto(ViewModelStores.prefetchToken(activity),
+                    holder.getViewModelStore());
             // 添加到 Map<Activity, HolderFragment> 缓存
             mNotCommittedActivityHolders.put(activity, holder);
+            cacheHolderFragment(activity, holder);
             // 返回
             return holder;
         }
 
-        HolderFragment holderFragmentFor(Fragment parentFragment) {
+        private HolderFragment lookupHolderFragment(Fragment parentFragment) {
             FragmentManager fm = parentFragment.getChildFragmentManager();
-            HolderFragment holder = findHolderFragment(fm);
+            checkNotDestroyed(fm);
+            HolderFragment holder = cachedHolderFragment(parentFragment);
+            if (holder != null) {
+                return holder;
+            }
+            holder = findHolderFragment(fm);
             if (holder != null) {
+                cacheHolderFragment(parentFragment, holder);
                 return holder;
             }
             holder = mNotCommittedFragmentHolders.get(parentFragment);
@@ -201,7 +329,10 @@ public class HolderFragment extends Fragment implements ViewModelStoreOwner {
 
             parentFragment.getFragmentManager().registerFragmentLifecycleCallbacks(mParentDestroyedCallback, false);
             holder = createHolderFragment(fm);
+            ViewModelPrefetcher.adoptInto(ViewModelStores.prefetchToken(parentFragment),
+                    holder.getViewModelStore());
             mNotCommittedFragmentHolders.put(parentFragment, holder);
+            cacheHolderFragment(parentFragment, holder);
             return holder;
         }
     }
@@ -0,0 +1,390 @@
+package android.arch.lifecycle;
+
+import android.app.Activity;
+import android.app.Application;
+import android.app.Application.ActivityLifecycleCallbacks;
+import android.os.Bundle;
+import android.support.annotation.MainThread;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.v4.app.Fragment;
+import android.support.v4.app.FragmentActivity;
+import android.support.v4.app.FragmentManager;
+import android.support.v4.app.FragmentManager.FragmentLifecycleCallbacks;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.WeakHashMap;
+
+/**
+ * 不依赖 HolderFragment 的 ViewModelStore 保留方式：借助 Activity 的 non-configuration instance，
+ * 在配置改变（例如旋转屏幕）时把 Activity 和它的 Fragment 的 ViewModelStore 交给新的 Activity 实例。
+ * 不需要 Fragment 事务，也不需要为每个 Activity / Fragment 多加一个 HolderFragment。
+ * <p>
+ * Activity 实现 {@link Host} 并在 onRetainCustomNonConfigurationInstance 中返回 {@link #retain} 即可打开：
+ * <pre>
+ * public class UserActivity extends FragmentActivity implements RetainedViewModelStores.Host {
+ *     {@literal @}Override
+ *     public Object onRetainCustomNonConfigurationInstance() {
+ *         return RetainedViewModelStores.retain(this);
+ *     }
+ * }
+ * </pre>
+ * 每个 Fragment 实例的 store 用一个随机 id 区分，id 写在 Fragment 的 saved state 中，
+ * 重建后的 Fragment 凭它找回同一个 store；同一个容器、同一个类的多个 Fragment（例如返回栈中的）互不影响。
+ * <p>
+ * 配置改变时没有把 {@link #retain} 的结果交给系统（没有调用，或者返回了别的对象）会直接抛出
+ * IllegalStateException，而不是悄悄丢掉所有 ViewModel。
+ * <p>
+ * {@link SavedStateViewModel} 的状态保存在 Activity / Fragment 的 saved state 中。进程被杀后第一个重建的
+ * Activity 在使用 ViewModel 之前就已经恢复了 Fragment，要让它也能恢复状态，需要在 Application.onCreate 中
+ * 调用 {@link ViewModelStateSaver#install}。
+ */
+public final class RetainedViewModelStores {
+
+    /**
+     * 标记接口：Activity 在 onRetainCustomNonConfigurationInstance 中返回了 {@link #retain} 的结果
+     */
+    public interface Host {
+    }
+
+    // Activity 的 saved state 中 Stores 的 id，用来发现没有交接成功的 Stores
+    private static final String STORES_ID_KEY =
+            "android.arch.lifecycle.RetainedViewModelStores.STORES_ID";
+    // Fragment 的 saved state 中 store 的 id
+    private static final String FRAGMENT_ID_KEY =
+            "android.arch.lifecycle.RetainedViewModelStores.FRAGMENT_ID";
+    // Activity / Fragment 的 saved state 中 ViewModel 状态快照的 key
+    private static final String VIEW_MODEL_STATE_KEY =
+            "android.arch.lifecycle.RetainedViewModelStores.ViewModelState";
+
+    // 当前 Activity 实例 -> 它的 ViewModelStore 们
+    private static final Map<Activity, Stores> sStores = new WeakHashMap<>();
+    // 因为配置改变销毁、还没有被新实例接管的 Stores，id -> Stores
+    private static final HashMap<String, Stores> sHandingOver = new HashMap<>();
+
+    private static boolean sActivityCallbacksIsAdded;
+
+    private static final ActivityLifecycleCallbacks sActivityCallbacks =
+            new EmptyActivityLifecycleCallbacks() {
+                @Override
+                public void onActivityCreated(Activity activity, Bundle savedInstanceState) {
+                    if (!(activity instanceof Host) || !(activity instanceof FragmentActivity)) {
+                        return;
+                    }
+                    // 在 Fragment 恢复之前注册回调，才能从它们的 saved state 中读到 store 的 id
+                    Stores stores = storesFor((FragmentActivity) activity);
+                    String id = savedInstanceState == null
+                            ? null : savedInstanceState.getString(STORES_ID_KEY);
+                    if (id != null && !id.equals(stores.mId)) {
+                        Stores lost = sHandingOver.remove(id);
+                        if (lost != null) {
+                            lost.clear();
+                            throw notRetained(activity);
+                        }
+                    }
+                    if (savedInstanceState != null && stores.mActivityStore == null) {
+                        // 进程被杀后重建，第一次获取 store 时恢复
+                        stores.mActivityState = savedInstanceState.getByteArray(VIEW_MODEL_STATE_KEY);
+                    }
+                }
+
+                @Override
+                public void onActivityStarted(Activity activity) {
+                    Stores stores = sStores.get(activity);
+                    if (stores != null && stores.mSweepPending) {
+                        stores.clearOrphans();
+                    }
+                }
+
+                @Override
+                public void onActivitySaveInstanceState(Activity activity, Bundle outState) {
+                    Stores stores = sStores.get(activity);
+                    if (stores == null) {
+                        return;
+                    }
+                    outState.putString(STORES_ID_KEY, stores.mId);
+                    byte[] state = stores.mActivityStore == null
+                            ? null : stores.mActivityStore.saveState();
+                    if (state != null) {
+                        outState.putByteArray(VIEW_MODEL_STATE_KEY, state);
+                    }
+                }
+
+                @Override
+                public void onActivityDestroyed(Activity activity) {
+                    Stores stores = sStores.remove(activity);
+                    if (stores == null) {
+                        return;
+                    }
+                    if (!activity.isChangingConfigurations()) {
+                        // 不是配置改变，Activity 不会再重建，清空所有 ViewModel
+                        stores.clear();
+                        return;
+                    }
+                    if (!stores.mRetained) {
+                        stores.clear();
+                        throw notRetained(activity);
+                    }
+                    stores.mRetained = false;
+                    sHandingOver.put(stores.mId, stores);
+                }
+            };
+
+    private RetainedViewModelStores() {
+    }
+
+    /**
+     * 提前注册 Activity 回调，由 {@link ViewModelStateSaver#install} 调用
+     */
+    @MainThread
+    static void install(@NonNull Application application) {
+        if (!sActivityCallbacksIsAdded) {
+            sActivityCallbacksIsAdded = true;
+            application.registerActivityLifecycleCallbacks(sActivityCallbacks);
+        }
+    }
+
+    /**
+     * 在 Activity 的 onRetainCustomNonConfigurationInstance 中返回
+     */
+    @Nullable
+    @MainThread
+    public static Object retain(@NonNull FragmentActivity activity) {
+        return retain(activity, null);
+    }
+
+    /**
+     * 同 {@link #retain(FragmentActivity)}，同时保留 Activity 自己的 non-configuration 数据，
+     * 重建后通过 {@link #getRetainedCustomInstance(FragmentActivity)} 取回
+     */
+    @Nullable
+    @MainThread
+    public static Object retain(@NonNull FragmentActivity activity, @Nullable Object custom) {
+        Stores stores = sStores.get(activity);
+        if (stores == null) {
+            // 没有用过 ViewModel，不需要保留 store
+            return custom;
+        }
+        stores.mCustom = custom;
+        stores.mRetained = true;
+        return stores;
+    }
+
+    /**
+     * 取回上一个 Activity 实例通过 {@link #retain(FragmentActivity, Object)} 保留的数据
+     */
+    @Nullable
+    @MainThread
+    public static Object getRetainedCustomInstance(@NonNull FragmentActivity activity) {
+        Object last = activity.getLastCustomNonConfigurationInstance();
+        return last instanceof Stores ? ((Stores) last).mCustom : last;
+    }
+
+    @NonNull
+    @MainThread
+    static ViewModelStore activityStore(@NonNull FragmentActivity activity) {
+        Stores stores = storesFor(activity);
+        if (stores.mActivityStore == null) {
+            stores.mActivityStore = new ViewModelStore();
+            stores.mActivityStore.setOwnerName(activity.getClass().getName());
+            ViewModelStateSaver.restore(stores.mActivityStore, stores.mActivityState, activity);
+            stores.mActivityState = null;
+            ViewModelPrefetcher.adoptInto(ViewModelStores.prefetchToken(activity),
+                    stores.mActivityStore);
+        }
+        return stores.mActivityStore;
+    }
+
+    @NonNull
+    @MainThread
+    static ViewModelStore fragmentStore(@NonNull FragmentActivity activity,
+            @NonNull Fragment fragment) {
+        Stores stores = storesFor(activity);
+        String id = stores.mFragmentIds.get(fragment);
+        if (id == null) {
+            id = UUID.randomUUID().toString();
+            stores.mFragmentIds.put(fragment, id);
+        }
+        ViewModelStore store = stores.mFragmentStores.get(id);
+        if (store == null) {
+            store = new ViewModelStore();
+            store.setOwnerName(fragment.getClass().getName());
+            ViewModelStateSaver.restore(store, stores.mFragmentStates.remove(id), fragment);
+            stores.mFragmentStores.put(id, store);
+            ViewModelPrefetcher.adoptInto(ViewModelStores.prefetchToken(fragment), store);
+        }
+        return store;
+    }
+
+    /**
+     * 返回 activity 已有的 ViewModelStore，没有时返回 null，不会创建
+     */
+    @Nullable
+    @MainThread
+    static ViewModelStore peekActivityStore(@NonNull FragmentActivity activity) {
+        Stores stores = peekStores(activity);
+        return stores == null ? null : stores.mActivityStore;
+    }
+
+    /**
+     * 返回 fragment 已有的 ViewModelStore，没有时返回 null，不会创建
+     */
+    @Nullable
+    @MainThread
+    static ViewModelStore peekFragmentStore(@NonNull FragmentActivity activity,
+            @NonNull Fragment fragment) {
+        Stores stores = peekStores(activity);
+        String id = stores == null ? null : stores.mFragmentIds.get(fragment);
+        return id == null ? null : stores.mFragmentStores.get(id);
+    }
+
+    private static Stores peekStores(FragmentActivity activity) {
+        Stores stores = sStores.get(activity);
+        if (stores == null) {
+            Object last = activity.getLastCustomNonConfigurationInstance();
+            if (last instanceof Stores) {
+                stores = (Stores) last;
+            }
+        }
+        return stores;
+    }
+
+    private static Stores storesFor(FragmentActivity activity) {
+        Stores stores = sStores.get(activity);
+        if (stores != null) {
+            return stores;
+        }
+        if (activity.getSupportFragmentManager().isDestroyed()) {
+            throw new IllegalStateException("Can't access ViewModels from onDestroy");
+        }
+        Object last = activity.getLastCustomNonConfigurationInstance();
+        if (last instanceof Stores) {
+            // 配置改变重建的 Activity 直接接管上一个实例的 store
+            stores = (Stores) last;
+            sHandingOver.remove(stores.mId);
+            stores.mSweepPending = true;
+        } else {
+            stores = new Stores();
+        }
+        sStores.put(activity, stores);
+        install(activity.getApplication());
+        activity.getSupportFragmentManager().registerFragmentLifecycleCallbacks(
+                stores.mFragmentCallbacks, true);
+        return stores;
+    }
+
+    private static IllegalStateException notRetained(Activity activity) {
+        return new IllegalStateException(activity.getClass().getName()
+                + " implements RetainedViewModelStores.Host but did not return"
+                + " RetainedViewModelStores.retain(this) from"
+                + " onRetainCustomNonConfigurationInstance(); its ViewModels have been cleared");
+    }
+
+    /**
+     * 一个 Activity（跨配置改变）的所有 ViewModelStore
+     */
+    private static final class Stores {
+        final String mId = UUID.randomUUID().toString();
+        ViewModelStore mActivityStore;
+        // store id -> store
+        final HashMap<String, ViewModelStore> mFragmentStores = new HashMap<>();
+        // 进程重建后还没有创建 store 的状态快照
+        byte[] mActivityState;
+        final HashMap<String, byte[]> mFragmentStates = new HashMap<>();
+        // 当前的 Fragment 实例 -> 它的 store id
+        final WeakHashMap<Fragment, String> mFragmentIds = new WeakHashMap<>();
+        Object mCustom;
+        // 当前 Activity 实例在 onRetainCustomNonConfigurationInstance 中调用了 retain
+        boolean mRetained;
+        // 刚被新的 Activity 实例接管，Fragment 恢复完之后要清理没有被认领的 store
+        boolean mSweepPending;
+
+        final FragmentLifecycleCallbacks mFragmentCallbacks = new FragmentLifecycleCallbacks() {
+            @Override
+            public void onFragmentPreCreated(FragmentManager fm, Fragment fragment,
+                    Bundle savedInstanceState) {
+                // 在 Fragment 的 onCreate 之前，它在 onCreate 中获取 ViewModel 时已经能找到原来的 store
+                String id = savedInstanceState == null
+                        ? null : savedInstanceState.getString(FRAGMENT_ID_KEY);
+                if (id == null) {
+                    return;
+                }
+                mFragmentIds.put(fragment, id);
+                byte[] state = savedInstanceState.getByteArray(VIEW_MODEL_STATE_KEY);
+                if (state != null && !mFragmentStores.containsKey(id)) {
+                    mFragmentStates.put(id, state);
+                }
+            }
+
+            @Override
+            public void onFragmentSaveInstanceState(FragmentManager fm, Fragment fragment,
+                    Bundle outState) {
+                String id = mFragmentIds.get(fragment);
+                if (id == null) {
+                    return;
+                }
+                outState.putString(FRAGMENT_ID_KEY, id);
+                ViewModelStore store = mFragmentStores.get(id);
+                byte[] state = store == null ? null : store.saveState();
+                if (state != null) {
+                    outState.putByteArray(VIEW_MODEL_STATE_KEY, state);
+                }
+            }
+
+            @Override
+            public void onFragmentDestroyed(FragmentManager fm, Fragment fragment) {
+                String id = mFragmentIds.remove(fragment);
+                FragmentActivity activity = fragment.getActivity();
+                if (id == null || activity != null && activity.isChangingConfigurations()) {
+                    return;
+                }
+                // Fragment 被移除，不会再重建
+                mFragmentStates.remove(id);
+                ViewModelStore store = mFragmentStores.remove(id);
+                if (store != null) {
+                    store.clear();
+                }
+            }
+        };
+
+        /**
+         * 清除重建后没有 Fragment 认领的 store，例如 id 在 Fragment 保存状态之后才分配的
+         */
+        void clearOrphans() {
+            mSweepPending = false;
+            HashSet<String> claimed = new HashSet<>(mFragmentIds.values());
+            List<ViewModelStore> orphans = new ArrayList<>();
+            for (Iterator<Map.Entry<String, ViewModelStore>> it =
+                    mFragmentStores.entrySet().iterator(); it.hasNext(); ) {
+                Map.Entry<String, ViewModelStore> entry = it.next();
+                if (!claimed.contains(entry.getKey())) {
+                    orphans.add(entry.getValue());
+                    it.remove();
+                }
+            }
+            for (ViewModelStore store : orphans) {
+                store.clear();
+            }
+        }
+
+        void clear() {
+            mActivityState = null;
+            mFragmentStates.clear();
+            List<ViewModelStore> stores = new ArrayList<>(mFragmentStores.values());
+            mFragmentStores.clear();
+            if (mActivityStore != null) {
+                stores.add(mActivityStore);
+                mActivityStore = null;
+            }
+            for (ViewModelStore store : stores) {
+                store.clear();
+            }
+        }
+    }
+}
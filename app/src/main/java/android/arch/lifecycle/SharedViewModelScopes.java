@@ -0,0 +1,159 @@
+package android.arch.lifecycle;
+
+import android.support.annotation.MainThread;
+import android.support.annotation.NonNull;
+import android.support.v4.app.Fragment;
+import android.support.v4.app.FragmentActivity;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.HashMap;
+
+/**
+ * 跨多个页面共享的具名 ViewModelStore（例如购物车、一次搜索会话），引用计数管理。
+ * <p>
+ * 多个 Activity / Fragment 可以挂到同一个名字的 scope 上，拿到的是同一个 ViewModelStore，
+ * 共享的数据只加载一次。最后一个挂上来的 Activity / Fragment 被真正销毁时才调用 scope 的 clear()。
+ * <p>
+ * 挂载关系记在 Activity / Fragment 自己的 ViewModelStore 里，所以和 HolderFragment 中的 store 一样
+ * 能在配置改变（例如旋转屏幕）后存活，不会因为重建而重复计数或者提前 clear。
+ * <p>
+ * scope 中 {@link SavedStateViewModel} 的状态跟着每个挂上来的 Activity / Fragment 的 store 一起保存；
+ * 进程被杀后第一个重新挂上来的页面把状态交还给 scope。
+ */
+public final class SharedViewModelScopes {
+
+    private static final String KEY_PREFIX = "android.arch.lifecycle.SharedViewModelScopes:";
+
+    // scope 名字 -> scope，只在主线程访问
+    private static final HashMap<String, Scope> sScopes = new HashMap<>();
+
+    private SharedViewModelScopes() {
+    }
+
+    /**
+     * 把 activity 挂到名为 name 的 scope 上，返回 scope 的 ViewModelStore
+     */
+    @NonNull
+    @MainThread
+    public static ViewModelStore of(@NonNull FragmentActivity activity, @NonNull String name) {
+        ViewModelStore store = attach(ViewModelStores.of(activity), name);
+        // 挂在 scope 上的页面有一个可见，scope 就不会被回收
+        ViewModelMemoryTrimmer.watch(activity, activity.getApplication(), store);
+        return store;
+    }
+
+    /**
+     * 把 fragment 挂到名为 name 的 scope 上，返回 scope 的 ViewModelStore
+     */
+    @NonNull
+    @MainThread
+    public static ViewModelStore of(@NonNull Fragment fragment, @NonNull String name) {
+        ViewModelStore store = attach(ViewModelStores.of(fragment), name);
+        FragmentActivity activity = fragment.getActivity();
+        ViewModelMemoryTrimmer.watch(fragment,
+                activity != null ? activity.getApplication() : null, store);
+        return store;
+    }
+
+    /**
+     * 当前挂在 name 上的 Activity / Fragment 数量，scope 不存在时返回 0
+     */
+    @MainThread
+    public static int getReferenceCount(@NonNull String name) {
+        Scope scope = sScopes.get(name);
+        return scope == null ? 0 : scope.mReferenceCount;
+    }
+
+    private static ViewModelStore attach(ViewModelStore ownerStore, final String name) {
+        // 同一个 owner 只会创建一个 ScopeReference，它在 owner 的 store clear 时释放引用
+        ScopeReference reference = ownerStore.getOrCreate(KEY_PREFIX + name, ScopeReference.class,
+                new ViewModelProvider.Factory() {
+                    @NonNull
+                    @Override
+                    public <T extends ViewModel> T create(@NonNull Class<T> modelClass) {
+                        Scope scope = sScopes.get(name);
+                        if (scope == null) {
+                            scope = new Scope(name);
+                            sScopes.put(name, scope);
+                        }
+                        scope.mReferenceCount++;
+                        //noinspection unchecked
+                        return (T) new ScopeReference(scope);
+                    }
+                });
+        return reference.mScope.mStore;
+    }
+
+    private static final class Scope {
+        final String mName;
+        final ViewModelStore mStore = new ViewModelStore();
+        int mReferenceCount;
+
+        Scope(String name) {
+            mName = name;
+            mStore.setOwnerName(SharedViewModelScopes.class.getName() + ":" + name);
+        }
+
+        void release() {
+            if (--mReferenceCount == 0) {
+                if (sScopes.get(mName) == this) {
+                    sScopes.remove(mName);
+                }
+                mStore.clear();
+            }
+        }
+    }
+
+    /**
+     * 放在 owner 自己的 ViewModelStore 里，代表 owner 对 scope 的一个引用，
+     * 同时把 scope 的状态快照存进 owner 的状态中
+     */
+    static final class ScopeReference extends ViewModel implements SavedStateViewModel {
+        final Scope mScope;
+        // scope 的快照没有变化时 saveState() 返回同一个数组，数组变了才换版本号
+        private byte[] mSnapshot;
+        private int mVersion;
+
+        ScopeReference(Scope scope) {
+            mScope = scope;
+        }
+
+        @Override
+        public int getStateVersion() {
+            byte[] snapshot = mScope.mStore.saveState();
+            if (snapshot != mSnapshot) {
+                mSnapshot = snapshot;
+                mVersion++;
+            }
+            return mVersion;
+        }
+
+        @Override
+        public void saveState(@NonNull DataOutput out) throws IOException {
+            byte[] snapshot = mScope.mStore.saveState();
+            out.writeInt(snapshot == null ? -1 : snapshot.length);
+            if (snapshot != null) {
+                out.write(snapshot);
+            }
+        }
+
+        @Override
+        public void restoreState(@NonNull DataInput in) throws IOException {
+            int length = in.readInt();
+            if (length < 0) {
+                return;
+            }
+            byte[] snapshot = new byte[length];
+            in.readFully(snapshot);
+            // 其他页面已经恢复过这个 scope 时忽略
+            ViewModelStateSaver.restore(mScope.mStore, snapshot, "scope " + mScope.mName);
+        }
+
+        @Override
+        protected void onCleared() {
+            mScope.release();
+        }
+    }
+}
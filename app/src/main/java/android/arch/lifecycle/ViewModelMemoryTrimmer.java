@@ -0,0 +1,133 @@
+package android.arch.lifecycle;
+
+import android.app.Application;
+import android.content.ComponentCallbacks2;
+import android.content.res.Configuration;
+import android.support.annotation.MainThread;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.WeakHashMap;
+
+/**
+ * 把系统的 onTrimMemory / onLowMemory 转给所有打开了回收策略的 ViewModelStore
+ * （见 {@link ViewModelStore#setEvictionPolicy(ViewModelEvictionPolicy)}）。
+ * <p>
+ * 通过 {@link ViewModelStores} 第一次获取 store 时自动注册，不论 store 来自 HolderFragment、
+ * ViewModelStoreOwner 还是 {@link RetainedViewModelStores}。同时跟踪每个 store 的 owner 是否处于 started 状态：
+ * 可见的页面的 store 不会被回收，只回收已经 stop（在后台或者在返回栈中）的页面的 store。
+ */
+public final class ViewModelMemoryTrimmer implements ComponentCallbacks2 {
+
+    private static final ViewModelMemoryTrimmer sInstance = new ViewModelMemoryTrimmer();
+
+    private static boolean sInstalled;
+
+    // owner -> 正在跟踪它的 started 状态的 store，只在主线程访问
+    private static final WeakHashMap<LifecycleOwner, ArrayList<ViewModelStore>> sWatched =
+            new WeakHashMap<>();
+
+    private ViewModelMemoryTrimmer() {
+    }
+
+    /**
+     * 注册到 application，重复调用只注册一次
+     */
+    @MainThread
+    public static void install(@NonNull Application application) {
+        if (!sInstalled) {
+            sInstalled = true;
+            application.registerComponentCallbacks(sInstance);
+        }
+    }
+
+    /**
+     * 跟踪 owner 的 started 状态并同步给 store；同一个 owner 和 store 只跟踪一次。
+     * 配置改变重建的 owner 是新的实例，会重新跟踪。
+     */
+    @MainThread
+    static void watch(@NonNull LifecycleOwner owner, @Nullable Application application,
+            @NonNull ViewModelStore store) {
+        if (application != null) {
+            install(application);
+        }
+        ArrayList<ViewModelStore> stores = sWatched.get(owner);
+        if (stores == null) {
+            stores = new ArrayList<>(1);
+            sWatched.put(owner, stores);
+        } else if (stores.contains(store)) {
+            return;
+        }
+        stores.add(store);
+        // 已经 started 的 owner 在 addObserver 时会补发 ON_START
+        owner.getLifecycle().addObserver(new OwnerObserver(owner, store));
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        ViewModelStore.trimAll(fractionFor(level));
+    }
+
+    @Override
+    public void onLowMemory() {
+        ViewModelStore.trimAll(0.5f);
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+    }
+
+    /**
+     * 内存越紧张回收得越多。只是进入后台（TRIM_MEMORY_UI_HIDDEN）不算内存紧张，不回收；
+     * 只有进程快被杀死时（TRIM_MEMORY_COMPLETE）才全部回收
+     */
+    private static float fractionFor(int level) {
+        if (level >= TRIM_MEMORY_COMPLETE) {
+            return 1f;
+        }
+        if (level >= TRIM_MEMORY_MODERATE || level == TRIM_MEMORY_RUNNING_CRITICAL) {
+            return 0.5f;
+        }
+        if (level >= TRIM_MEMORY_BACKGROUND || level == TRIM_MEMORY_RUNNING_LOW) {
+            return 0.25f;
+        }
+        // TRIM_MEMORY_UI_HIDDEN、TRIM_MEMORY_RUNNING_MODERATE
+        return 0f;
+    }
+
+    /**
+     * 把 owner 的 ON_START / ON_STOP 转给 store
+     */
+    static final class OwnerObserver implements LifecycleObserver {
+        private final LifecycleOwner mOwner;
+        private final ViewModelStore mStore;
+
+        OwnerObserver(LifecycleOwner owner, ViewModelStore store) {
+            mOwner = owner;
+            mStore = store;
+        }
+
+        @OnLifecycleEvent(Lifecycle.Event.ON_START)
+        void onStart() {
+            mStore.onOwnerStarted();
+        }
+
+        @OnLifecycleEvent(Lifecycle.Event.ON_STOP)
+        void onStop() {
+            mStore.onOwnerStopped();
+        }
+
+        @OnLifecycleEvent(Lifecycle.Event.ON_DESTROY)
+        void onDestroy() {
+            mOwner.getLifecycle().removeObserver(this);
+            ArrayList<ViewModelStore> stores = sWatched.get(mOwner);
+            if (stores != null) {
+                stores.remove(mStore);
+                if (stores.isEmpty()) {
+                    sWatched.remove(mOwner);
+                }
+            }
+        }
+    }
+}
@@ -98,6 +98,93 @@ public class ViewModelProviders {
         return new ViewModelProvider(ViewModelStores.of(activity), factory);
     }
 
+    /**
+     * 按 Fragment -> 父 Fragment -> Activity 的层级查找 ViewModel 的 ViewModelProvider，
+     * 使用 ViewModelProvider.AndroidViewModelFactory 来实例化新的 ViewModels
+     *
+     * @see HierarchicalViewModelProvider
+     */
+    @NonNull
+    @MainThread
+    public static ViewModelProvider ofHierarchy(@NonNull Fragment fragment) {
+        return ofHierarchy(fragment, null);
+    }
+
+    /**
+     * 按 Fragment -> 父 Fragment -> Activity 的层级查找 ViewModel 的 ViewModelProvider，
+     * 层级中都没有时用给定的工厂在 Fragment 自己的 store 中创建
+     *
+     * @see HierarchicalViewModelProvider
+     */
+    @NonNull
+    @MainThread
+    public static ViewModelProvider ofHierarchy(@NonNull Fragment fragment,
+            @Nullable Factory factory) {
+        Application application = checkApplication(checkActivity(fragment));
+        if (factory == null) {
+            factory = ViewModelProvider.AndroidViewModelFactory.getInstance(application);
+        }
+        return new HierarchicalViewModelProvider(fragment, factory);
+    }
+
+    /**
+     * 获取名为 scopeName 的共享 scope 的 ViewModelProvider，同一个 scope 上的页面拿到的是同一批 ViewModel
+     *
+     * @see SharedViewModelScopes
+     */
+    @NonNull
+    @MainThread
+    public static ViewModelProvider ofScope(@NonNull FragmentActivity activity,
+            @NonNull String scopeName) {
+        return ofScope(activity, scopeName, null);
+    }
+
+    /**
+     * 获取名为 scopeName 的共享 scope 的 ViewModelProvider，用给定的工厂创建 scope 中还没有的 ViewModel。
+     * scope 的 store 比单个页面活得久，factory 不要引用 Activity / Fragment / View
+     *
+     * @see SharedViewModelScopes
+     */
+    @NonNull
+    @MainThread
+    public static ViewModelProvider ofScope(@NonNull FragmentActivity activity,
+            @NonNull String scopeName, @Nullable Factory factory) {
+        Application application = checkApplication(activity);
+        if (factory == null) {
+            factory = ViewModelProvider.AndroidViewModelFactory.getInstance(application);
+        }
+        return new ViewModelProvider(SharedViewModelScopes.of(activity, scopeName), factory);
+    }
+
+    /**
+     * 获取名为 scopeName 的共享 scope 的 ViewModelProvider，同一个 scope 上的页面拿到的是同一批 ViewModel
+     *
+     * @see SharedViewModelScopes
+     */
+    @NonNull
+    @MainThread
+    public static ViewModelProvider ofScope(@NonNull Fragment fragment,
+            @NonNull String scopeName) {
+        return ofScope(fragment, scopeName, null);
+    }
+
+    /**
+     * 获取名为 scopeName 的共享 scope 的 ViewModelProvider，用给定的工厂创建 scope 中还没有的 ViewModel。
+     * scope 的 store 比单个页面活得久，factory 不要引用 Activity / Fragment / View
+     *
+     * @see SharedViewModelScopes
+     */
+    @NonNull
+    @MainThread
+    public static ViewModelProvider ofScope(@NonNull Fragment fragment,
+            @NonNull String scopeName, @Nullable Factory factory) {
+        Application application = checkApplication(checkActivity(fragment));
+        if (factory == null) {
+            factory = ViewModelProvider.AndroidViewModelFactory.getInstance(application);
+        }
+        return new ViewModelProvider(SharedViewModelScopes.of(fragment, scopeName), factory);
+    }
+
     /**
      * 工厂可创建 AndroidViewModel 和 ViewModel，具有空构造函数的.
      * <p>
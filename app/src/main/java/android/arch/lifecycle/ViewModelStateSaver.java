@@ -0,0 +1,172 @@
+package android.arch.lifecycle;
+
+import android.app.Activity;
+import android.app.Application;
+import android.app.Application.ActivityLifecycleCallbacks;
+import android.content.Context;
+import android.os.Bundle;
+import android.support.annotation.MainThread;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.v4.app.Fragment;
+import android.support.v4.app.FragmentActivity;
+import android.support.v4.app.FragmentManager;
+import android.support.v4.app.FragmentManager.FragmentLifecycleCallbacks;
+import android.util.Log;
+
+import java.io.File;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+
+/**
+ * 保存和恢复 {@link SavedStateViewModel} 的状态：
+ * <ul>
+ * <li>HolderFragment 中的 store 由 HolderFragment 自己保存；</li>
+ * <li>{@link RetainedViewModelStores.Host} 的 Activity 和它的 Fragment 由 RetainedViewModelStores 保存；</li>
+ * <li>实现了 ViewModelStoreOwner 的 Activity / Fragment 由这里保存到它们的 saved state 中；</li>
+ * <li>{@link SharedViewModelScopes} 的状态跟着挂在 scope 上的每个 Activity / Fragment 一起保存。</li>
+ * </ul>
+ * 第一次通过 {@link ViewModelStores} 获取 store 时自动打开。进程被杀后第一个重建的 Activity 在那之前就已经
+ * 恢复了它的 Fragment，要让它们也能恢复状态，在 Application.onCreate 中调用 {@link #install}：
+ * <pre>
+ * public class MyApplication extends Application {
+ *     {@literal @}Override
+ *     public void onCreate() {
+ *         super.onCreate();
+ *         ViewModelStateSaver.install(this);
+ *     }
+ * }
+ * </pre>
+ */
+public final class ViewModelStateSaver {
+
+    private static final String LOG_TAG = "ViewModelStores";
+
+    // onSaveInstanceState 中保存 ViewModel 状态快照的 key
+    private static final String VIEW_MODEL_STATE_KEY =
+            "android.arch.lifecycle.ViewModelStateSaver.ViewModelState";
+
+    // 大状态落盘的目录，在 getFilesDir() 下
+    private static final String STATE_SPILL_DIRECTORY = "viewmodel-state";
+
+    private static boolean sInstalled;
+
+    // 已经注册了 Fragment 回调的 Activity 实例
+    private static final WeakHashMap<FragmentActivity, Boolean> sWatched = new WeakHashMap<>();
+
+    private static final FragmentLifecycleCallbacks sFragmentCallbacks =
+            new FragmentLifecycleCallbacks() {
+                @Override
+                public void onFragmentPreCreated(FragmentManager fm, Fragment fragment,
+                        Bundle savedInstanceState) {
+                    // 在 Fragment 的 onCreate 之前，它在 onCreate 中获取的 ViewModel 已经能拿到状态
+                    if (isSaved(fragment) && savedInstanceState != null) {
+                        restore(((ViewModelStoreOwner) fragment).getViewModelStore(),
+                                savedInstanceState.getByteArray(VIEW_MODEL_STATE_KEY), fragment);
+                    }
+                }
+
+                @Override
+                public void onFragmentSaveInstanceState(FragmentManager fm, Fragment fragment,
+                        Bundle outState) {
+                    if (isSaved(fragment)) {
+                        save(((ViewModelStoreOwner) fragment).getViewModelStore(), outState);
+                    }
+                }
+            };
+
+    private static final ActivityLifecycleCallbacks sActivityCallbacks =
+            new EmptyActivityLifecycleCallbacks() {
+                @Override
+                public void onActivityCreated(Activity activity, Bundle savedInstanceState) {
+                    if (activity instanceof FragmentActivity) {
+                        watch((FragmentActivity) activity);
+                    }
+                    if (activity instanceof ViewModelStoreOwner && savedInstanceState != null) {
+                        restore(((ViewModelStoreOwner) activity).getViewModelStore(),
+                                savedInstanceState.getByteArray(VIEW_MODEL_STATE_KEY), activity);
+                    }
+                }
+
+                @Override
+                public void onActivitySaveInstanceState(Activity activity, Bundle outState) {
+                    if (activity instanceof ViewModelStoreOwner) {
+                        save(((ViewModelStoreOwner) activity).getViewModelStore(), outState);
+                    }
+                }
+
+                @Override
+                public void onActivityDestroyed(Activity activity) {
+                    sWatched.remove(activity);
+                }
+            };
+
+    private ViewModelStateSaver() {
+    }
+
+    /**
+     * 在 Application.onCreate 中调用，进程被杀后第一个重建的 Activity 也能恢复 ViewModel 的状态
+     */
+    @MainThread
+    public static void install(@NonNull Application application) {
+        if (sInstalled) {
+            return;
+        }
+        sInstalled = true;
+        initSpillDirectory(application);
+        application.registerActivityLifecycleCallbacks(sActivityCallbacks);
+        RetainedViewModelStores.install(application);
+    }
+
+    /**
+     * 开始保存 activity 和它的 Fragment 的 ViewModel 状态，没有 install 时顺便 install
+     */
+    @MainThread
+    static void watch(@NonNull FragmentActivity activity) {
+        install(activity.getApplication());
+        if (sWatched.put(activity, Boolean.TRUE) == null) {
+            activity.getSupportFragmentManager().registerFragmentLifecycleCallbacks(
+                    sFragmentCallbacks, true);
+        }
+    }
+
+    /**
+     * 超过阈值的状态写到应用私有目录，Bundle 中只放文件名。
+     * getFilesDir() 第一次调用会访问磁盘，放在写文件的后台线程上
+     */
+    static void initSpillDirectory(@NonNull Context context) {
+        if (ViewModelStateSpill.hasDirectory()) {
+            return;
+        }
+        final Context application = context.getApplicationContext();
+        ViewModelStateSpill.setDirectory(new Callable<File>() {
+            @Override
+            public File call() {
+                return new File(application.getFilesDir(), STATE_SPILL_DIRECTORY);
+            }
+        });
+    }
+
+    /**
+     * 把快照恢复到 store 中。快照损坏时只记一条日志，丢弃快照，ViewModel 不带状态重新创建，页面照常启动
+     */
+    static void restore(@NonNull ViewModelStore store, @Nullable byte[] snapshot,
+            @NonNull Object owner) {
+        if (!store.restoreState(snapshot)) {
+            Log.w(LOG_TAG, "Discarded malformed ViewModel saved state of " + owner);
+        }
+    }
+
+    // HolderFragment 自己保存它的 store
+    private static boolean isSaved(Fragment fragment) {
+        return fragment instanceof ViewModelStoreOwner && !(fragment instanceof HolderFragment);
+    }
+
+    private static void save(ViewModelStore store, Bundle outState) {
+        // 只有实现了 SavedStateViewModel 的 ViewModel 会被保存，状态没变化时直接复用上一次的快照
+        byte[] state = store.saveState();
+        if (state != null) {
+            outState.putByteArray(VIEW_MODEL_STATE_KEY, state);
+        }
+    }
+}
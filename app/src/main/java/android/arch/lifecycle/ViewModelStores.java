@@ -2,8 +2,12 @@ package android.arch.lifecycle;
 
 import static android.arch.lifecycle.HolderFragment.holderFragmentFor;
 
+import android.app.Activity;
+import android.content.Intent;
+import android.os.Bundle;
 import android.support.annotation.MainThread;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.support.v4.app.Fragment;
 import android.support.v4.app.FragmentActivity;
 
@@ -24,9 +28,29 @@ public class ViewModelStores {
     @NonNull
     @MainThread
     public static ViewModelStore of(@NonNull FragmentActivity activity) {
+        ViewModelStore store = storeOf(activity);
+        // 每个 Activity 实例只注册一次，之后的查找不再访问这些表
+        if (store.registerOwner(activity)) {
+            if (activity instanceof ViewModelStoreOwner) {
+                ViewModelPrefetcher.adoptInto(prefetchToken(activity), store);
+                store.setOwnerName(activity.getClass().getName());
+            }
+            // 保存和恢复 SavedStateViewModel 的状态
+            ViewModelStateSaver.watch(activity);
+            // 内存紧张时只回收已经 stop 的页面的 ViewModel
+            ViewModelMemoryTrimmer.watch(activity, activity.getApplication(), store);
+        }
+        return store;
+    }
+
+    private static ViewModelStore storeOf(FragmentActivity activity) {
         if (activity instanceof ViewModelStoreOwner) {
             return ((ViewModelStoreOwner) activity).getViewModelStore();
         }
+        if (activity instanceof RetainedViewModelStores.Host) {
+            // 通过 non-configuration instance 保留，不需要 HolderFragment
+            return RetainedViewModelStores.activityStore(activity);
+        }
         // 系统为你的 Activity 添加一个具有提供 ViewModelStore 的功能的 holderFragment
         return holderFragmentFor(activity).getViewModelStore();
     }
@@ -39,10 +63,85 @@ public class ViewModelStores {
     @NonNull
     @MainThread
     public static ViewModelStore of(@NonNull Fragment fragment) {
+        ViewModelStore store = storeOf(fragment);
+        // 每个 Fragment 实例只注册一次。ViewModelStateSaver 打开后会自动跟踪之后创建的每个 Activity，
+        // 保留实例的 Fragment 换了 Activity 也不需要重新注册
+        if (store.registerOwner(fragment)) {
+            if (fragment instanceof ViewModelStoreOwner) {
+                ViewModelPrefetcher.adoptInto(prefetchToken(fragment), store);
+                store.setOwnerName(fragment.getClass().getName());
+            }
+            FragmentActivity activity = fragment.getActivity();
+            if (activity != null) {
+                ViewModelStateSaver.watch(activity);
+            }
+            ViewModelMemoryTrimmer.watch(fragment,
+                    activity != null ? activity.getApplication() : null, store);
+        }
+        return store;
+    }
+
+    private static ViewModelStore storeOf(Fragment fragment) {
         if (fragment instanceof ViewModelStoreOwner) {
             return ((ViewModelStoreOwner) fragment).getViewModelStore();
         }
+        FragmentActivity activity = fragment.getActivity();
+        if (activity instanceof RetainedViewModelStores.Host) {
+            // 通过 Activity 的 non-configuration instance 保留，不需要 HolderFragment
+            return RetainedViewModelStores.fragmentStore(activity, fragment);
+        }
         // 系统为你的 Fragment 添加一个具有提供 ViewModelStore 的功能的 holderFragment
         return holderFragmentFor(fragment).getViewModelStore();
     }
+
+    /**
+     * 返回 activity 已有的 ViewModelStore，还没有时返回 null，不会为它创建 HolderFragment
+     */
+    @Nullable
+    @MainThread
+    static ViewModelStore peek(@NonNull FragmentActivity activity) {
+        if (activity instanceof ViewModelStoreOwner) {
+            return ((ViewModelStoreOwner) activity).getViewModelStore();
+        }
+        if (activity instanceof RetainedViewModelStores.Host) {
+            return RetainedViewModelStores.peekActivityStore(activity);
+        }
+        HolderFragment holder = HolderFragment.peekHolderFragmentFor(activity);
+        return holder == null ? null : holder.getViewModelStore();
+    }
+
+    /**
+     * 返回 fragment 已有的 ViewModelStore，还没有时返回 null，不会为它创建 HolderFragment
+     */
+    @Nullable
+    @MainThread
+    static ViewModelStore peek(@NonNull Fragment fragment) {
+        if (fragment instanceof ViewModelStoreOwner) {
+            return ((ViewModelStoreOwner) fragment).getViewModelStore();
+        }
+        FragmentActivity activity = fragment.getActivity();
+        if (activity instanceof RetainedViewModelStores.Host) {
+            return RetainedViewModelStores.peekFragmentStore(activity, fragment);
+        }
+        HolderFragment holder = HolderFragment.peekHolderFragmentFor(fragment);
+        return holder == null ? null : holder.getViewModelStore();
+    }
+
+    /**
+     * 启动 activity 的 Intent 中 {@link ViewModelPrefetcher#EXTRA_TOKEN} 的值
+     */
+    @Nullable
+    static String prefetchToken(@NonNull Activity activity) {
+        Intent intent = activity.getIntent();
+        return intent == null ? null : intent.getStringExtra(ViewModelPrefetcher.EXTRA_TOKEN);
+    }
+
+    /**
+     * fragment arguments 中 {@link ViewModelPrefetcher#EXTRA_TOKEN} 的值
+     */
+    @Nullable
+    static String prefetchToken(@NonNull Fragment fragment) {
+        Bundle arguments = fragment.getArguments();
+        return arguments == null ? null : arguments.getString(ViewModelPrefetcher.EXTRA_TOKEN);
+    }
 }
@@ -1,6 +1,7 @@
 package com.example.feiwang.viewmodelandlivedata;
 
 import android.app.Application;
+import android.arch.lifecycle.ViewModelStateSaver;
 
 /**
  * Created by fei.wang on 2019/3/24.
@@ -11,5 +12,7 @@ public class MyApplication extends Application {
     @Override
     public void onCreate() {
         super.onCreate();
+        // 进程被杀后重建的第一个页面也能恢复 ViewModel 的状态
+        ViewModelStateSaver.install(this);
     }
 }
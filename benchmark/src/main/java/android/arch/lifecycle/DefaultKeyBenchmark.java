@@ -0,0 +1,45 @@
+package android.arch.lifecycle;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * get(Class) 中默认 key 的构造：每次拼接字符串和按 class 缓存的对比
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DefaultKeyBenchmark {
+
+    private static final String DEFAULT_KEY = "android.arch.lifecycle.ViewModelProvider.DefaultKey";
+
+    public static class UserModel extends ViewModel {
+    }
+
+    private final Class<UserModel> mModelClass = UserModel.class;
+
+    /**
+     * 原来的做法：getCanonicalName 再拼接，并计算新字符串的 hash
+     */
+    @Benchmark
+    public int concatenated() {
+        return (DEFAULT_KEY + ":" + mModelClass.getCanonicalName()).hashCode();
+    }
+
+    @Benchmark
+    public int cached() {
+        return ViewModelProvider.defaultKey(mModelClass).hashCode();
+    }
+}
@@ -0,0 +1,84 @@
+package android.arch.lifecycle;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 反射创建和直接调用构造函数创建 ViewModel 的对比
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FactoryBenchmark {
+
+    public static class UserModel extends ViewModel {
+        public UserModel() {
+        }
+    }
+
+    private final ViewModelProvider.Factory mReflectiveFactory =
+            new ViewModelProvider.NewInstanceFactory();
+
+    // 相当于注解处理器生成的工厂
+    private final ViewModelProvider.Factory mDirectFactory = new ViewModelProvider.Factory() {
+        @SuppressWarnings("unchecked")
+        @Override
+        public <T extends ViewModel> T create(Class<T> modelClass) {
+            if (modelClass == UserModel.class) {
+                return (T) new UserModel();
+            }
+            throw new IllegalArgumentException(modelClass.toString());
+        }
+    };
+
+    private final ViewModelProvider.Factory mRegistry = new ViewModelFactoryRegistry.Builder()
+            .register(UserModel.class, new ViewModelFactoryRegistry.Creator<UserModel>() {
+                @Override
+                public UserModel create() {
+                    return new UserModel();
+                }
+            })
+            .fallback(mReflectiveFactory)
+            .build();
+
+    /**
+     * NewInstanceFactory：构造函数缓存 + Constructor.newInstance
+     */
+    @Benchmark
+    public ViewModel reflectiveCached() {
+        return mReflectiveFactory.create(UserModel.class);
+    }
+
+    /**
+     * 每次都查找构造函数的反射创建
+     */
+    @Benchmark
+    public ViewModel reflectiveUncached() throws Exception {
+        return UserModel.class.getConstructor().newInstance();
+    }
+
+    @Benchmark
+    public ViewModel direct() {
+        return mDirectFactory.create(UserModel.class);
+    }
+
+    /**
+     * ViewModelFactoryRegistry：一次 HashMap 查找 + Creator 调用
+     */
+    @Benchmark
+    public ViewModel registry() {
+        return mRegistry.create(UserModel.class);
+    }
+}
@@ -0,0 +1,141 @@
+package android.arch.lifecycle;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 不可变状态修改一个元素：复制整个 ArrayList / HashMap 对比 PersistentVector / PersistentMap，
+ * 以及修改后比较新旧两个版本
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PersistentCollectionsBenchmark {
+
+    @Param({"100", "1000", "10000"})
+    public int mSize;
+
+    private List<String> mList;
+    private Map<String, String> mMap;
+    private PersistentVector<String> mVector;
+    private PersistentMap<String, String> mPersistentMap;
+    private String[] mKeys;
+    private int mNext;
+
+    private PersistentVector<String> mChangedVector;
+    private PersistentMap<String, String> mChangedMap;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        mList = new ArrayList<>(mSize);
+        mMap = new HashMap<>();
+        mVector = PersistentVector.empty();
+        mPersistentMap = PersistentMap.empty();
+        mKeys = new String[mSize];
+        for (int i = 0; i < mSize; i++) {
+            mKeys[i] = "item" + i;
+            mList.add(mKeys[i]);
+            mMap.put(mKeys[i], mKeys[i]);
+            mVector = mVector.add(mKeys[i]);
+            mPersistentMap = mPersistentMap.put(mKeys[i], mKeys[i]);
+        }
+        mChangedVector = mVector.set(mSize / 2, "changed");
+        mChangedMap = mPersistentMap.put(mKeys[mSize / 2], "changed");
+    }
+
+    private int nextIndex() {
+        mNext = (mNext + 7) % mSize;
+        return mNext;
+    }
+
+    @Benchmark
+    public List<String> copyListAndSet() {
+        List<String> copy = new ArrayList<>(mList);
+        copy.set(nextIndex(), "changed");
+        return copy;
+    }
+
+    @Benchmark
+    public PersistentVector<String> vectorSet() {
+        return mVector.set(nextIndex(), "changed");
+    }
+
+    @Benchmark
+    public Map<String, String> copyMapAndPut() {
+        Map<String, String> copy = new HashMap<>(mMap);
+        copy.put(mKeys[nextIndex()], "changed");
+        return copy;
+    }
+
+    @Benchmark
+    public PersistentMap<String, String> mapPut() {
+        return mPersistentMap.put(mKeys[nextIndex()], "changed");
+    }
+
+    /**
+     * 只改了一个元素的两个版本，共享的部分直接跳过
+     */
+    @Benchmark
+    public int vectorDiff() {
+        final int[] changed = new int[1];
+        PersistentVector.diff(mVector, mChangedVector, new PersistentVector.DiffCallback<String>() {
+            @Override
+            public void onChanged(int index, String oldItem, String newItem) {
+                changed[0]++;
+            }
+
+            @Override
+            public void onInserted(int index, String item) {
+                changed[0]++;
+            }
+
+            @Override
+            public void onRemoved(int index, String item) {
+                changed[0]++;
+            }
+        });
+        return changed[0];
+    }
+
+    @Benchmark
+    public int mapDiff() {
+        final int[] changed = new int[1];
+        PersistentMap.diff(mPersistentMap, mChangedMap,
+                new PersistentMap.DiffCallback<String, String>() {
+                    @Override
+                    public void onAdded(String key, String value) {
+                        changed[0]++;
+                    }
+
+                    @Override
+                    public void onRemoved(String key, String value) {
+                        changed[0]++;
+                    }
+
+                    @Override
+                    public void onChanged(String key, String oldValue, String newValue) {
+                        changed[0]++;
+                    }
+                });
+        return changed[0];
+    }
+}
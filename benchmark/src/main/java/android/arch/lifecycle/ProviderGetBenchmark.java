@@ -0,0 +1,72 @@
+package android.arch.lifecycle;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ViewModelProvider.get 的命中与未命中，默认 key 和自定义 key
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ProviderGetBenchmark {
+
+    private static final String CUSTOM_KEY = "com.example.feiwang.viewmodelandlivedata.UserModel:42";
+
+    public static class UserModel extends ViewModel {
+        public UserModel() {
+        }
+    }
+
+    private final ViewModelProvider.Factory mFactory = new ViewModelProvider.NewInstanceFactory();
+    private ViewModelProvider mProvider;
+
+    @Setup
+    public void setUp() {
+        ViewModelStore store = new ViewModelStore();
+        mProvider = new ViewModelProvider(store, mFactory);
+        // 模拟一个常见页面：3 个 ViewModel
+        mProvider.get(UserModel.class);
+        mProvider.get(CUSTOM_KEY, UserModel.class);
+        mProvider.get("other", UserModel.class);
+    }
+
+    @Benchmark
+    public ViewModel hitDefaultKey() {
+        return mProvider.get(UserModel.class);
+    }
+
+    @Benchmark
+    public ViewModel hitCustomKey() {
+        return mProvider.get(CUSTOM_KEY, UserModel.class);
+    }
+
+    /**
+     * 未命中：包括新建 store、反射创建 ViewModel 和放入 store
+     */
+    @Benchmark
+    public ViewModel missDefaultKey() {
+        return new ViewModelProvider(new ViewModelStore(), mFactory).get(UserModel.class);
+    }
+
+    /**
+     * 未命中：包括新建 store、反射创建 ViewModel 和放入 store
+     */
+    @Benchmark
+    public ViewModel missCustomKey() {
+        return new ViewModelProvider(new ViewModelStore(), mFactory).get(CUSTOM_KEY, UserModel.class);
+    }
+}
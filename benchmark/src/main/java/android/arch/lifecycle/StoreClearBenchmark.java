@@ -0,0 +1,87 @@
+package android.arch.lifecycle;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ViewModelStore 的 put / get，以及有 N 个 ViewModel 时的 clear
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class StoreClearBenchmark {
+
+    public static class CountingModel extends ViewModel {
+        int mCleared;
+
+        @Override
+        protected void onCleared() {
+            mCleared++;
+        }
+    }
+
+    // 1~5 个走紧凑数组，20 个升级成哈希表
+    @Param({"1", "5", "20"})
+    public int mSize;
+
+    private String[] mKeys;
+    private ViewModel[] mModels;
+    private ViewModelStore mStore;
+
+    @Setup(Level.Trial)
+    public void setUpModels() {
+        mKeys = new String[mSize];
+        mModels = new ViewModel[mSize];
+        for (int i = 0; i < mSize; i++) {
+            mKeys[i] = "android.arch.lifecycle.ViewModelProvider.DefaultKey:Model" + i;
+            mModels[i] = new CountingModel();
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void fillStore() {
+        mStore = new ViewModelStore();
+        for (int i = 0; i < mSize; i++) {
+            mStore.put(mKeys[i], mModels[i]);
+        }
+    }
+
+    @Benchmark
+    public ViewModelStore clear() {
+        mStore.clear();
+        return mStore;
+    }
+
+    /**
+     * 放入 N 个 ViewModel 再全部清除
+     */
+    @Benchmark
+    public ViewModelStore putAndClear() {
+        ViewModelStore store = new ViewModelStore();
+        for (int i = 0; i < mSize; i++) {
+            store.put(mKeys[i], mModels[i]);
+        }
+        store.clear();
+        return store;
+    }
+
+    @Benchmark
+    public ViewModel getLast() {
+        return mStore.get(mKeys[mSize - 1]);
+    }
+}
@@ -0,0 +1,323 @@
+package android.arch.lifecycle.compiler;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.JavaFileObject;
+
+/**
+ * 编译期为每一个 ViewModel / AndroidViewModel 子类生成直接调用构造函数的工厂代码，
+ * 代替 NewInstanceFactory 和 AndroidViewModelFactory 里的反射创建。
+ * <p>
+ * 每个模块能被生成的类汇总到一个索引类中，类名固定，运行时用 Class.forName 加载，不扫描 jar / APK 中的资源：
+ * <ul>
+ * <li>应用模块生成 {@value #ROOT_INDEX}，ViewModelProvider 的默认工厂只加载这一个类。它先查本模块的类，
+ * 再直接调用编译时 classpath 上能看到的所有库模块的索引；</li>
+ * <li>库模块用注解处理器参数 {@value #OPTION_MODULE} 指定模块名，生成
+ * {@code android.arch.lifecycle.ViewModelFactoryIndex_<模块名>}，模块名在整个应用中不能重复。
+ * 库模块不指定的话会和应用模块生成同名的类，打包时报重复类错误：
+ * <pre>
+ * javaCompileOptions {
+ *     annotationProcessorOptions {
+ *         arguments = [viewModelFactoryModule: 'feature']
+ *     }
+ * }
+ * </pre></li>
+ * </ul>
+ * 应用模块编译时看不到的库模块（例如只通过另一个库的 implementation 依赖引入）的 ViewModel 运行时反射创建。
+ * <p>
+ * 索引在第一个发现 ViewModel 的 round 中生成（而不是最后一个 round，那里生成的文件不会再被处理，javac 会警告），
+ * 之后的 round 中其他注解处理器生成的 ViewModel 不进入索引，运行时反射创建。
+ * <p>
+ * 只处理 public、非抽象、从 android.arch.lifecycle 包可以直接访问的类：
+ * 无参构造函数用于 ViewModel，参数为 Application 的构造函数用于 AndroidViewModel。
+ */
+public class ViewModelFactoryProcessor extends AbstractProcessor {
+
+    private static final String VIEW_MODEL = "android.arch.lifecycle.ViewModel";
+    private static final String ANDROID_VIEW_MODEL = "android.arch.lifecycle.AndroidViewModel";
+    private static final String APPLICATION = "android.app.Application";
+
+    private static final String INDEX_INTERFACE = "android.arch.lifecycle.ViewModelFactoryIndex";
+    private static final String INDEX_PACKAGE = "android.arch.lifecycle";
+    // 和 viewmodel-core 中 GeneratedViewModelFactories 加载的类名一致
+    static final String ROOT_INDEX = "android.arch.lifecycle.GeneratedViewModelFactoryIndex";
+    static final String MODULE_INDEX_PREFIX = "ViewModelFactoryIndex_";
+    static final String OPTION_MODULE = "viewModelFactoryModule";
+
+    // 已经生成过索引，之后的 round 不再生成
+    private boolean mIndexWritten;
+
+    @Override
+    public Set<String> getSupportedAnnotationTypes() {
+        return Collections.singleton("*");
+    }
+
+    @Override
+    public Set<String> getSupportedOptions() {
+        return Collections.singleton(OPTION_MODULE);
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        TypeElement viewModel = processingEnv.getElementUtils().getTypeElement(VIEW_MODEL);
+        if (viewModel == null) {
+            // 当前模块没有 ViewModel，什么也不用做
+            return false;
+        }
+        if (roundEnv.processingOver()) {
+            return false;
+        }
+        TypeElement androidViewModel = processingEnv.getElementUtils()
+                .getTypeElement(ANDROID_VIEW_MODEL);
+        // binary name -> 生成信息，按类名排序保证每次生成的代码一致
+        Map<String, Entry> entries = new TreeMap<>();
+        for (Element element : roundEnv.getRootElements()) {
+            collect(element, viewModel, androidViewModel, entries);
+        }
+        String module = processingEnv.getOptions().get(OPTION_MODULE);
+        boolean root = module == null || module.isEmpty();
+        if (!mIndexWritten) {
+            // 应用模块自己没有 ViewModel 时也要生成，库模块的 ViewModel 通过它找到
+            List<String> modules = root ? moduleIndexes() : Collections.<String>emptyList();
+            if (entries.isEmpty() && modules.isEmpty()) {
+                return false;
+            }
+            mIndexWritten = true;
+            writeIndex(root ? ROOT_INDEX : INDEX_PACKAGE + "." + MODULE_INDEX_PREFIX
+                    + toIdentifier(module), entries, modules);
+        } else {
+            for (String name : entries.keySet()) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.NOTE, name
+                        + " is generated after the ViewModel factory index and will be created by reflection");
+            }
+        }
+        return false;
+    }
+
+    private void collect(Element element, TypeElement viewModel, TypeElement androidViewModel,
+            Map<String, Entry> entries) {
+        if (element.getKind() != ElementKind.CLASS) {
+            return;
+        }
+        TypeElement type = (TypeElement) element;
+        for (TypeElement nested : ElementFilter.typesIn(type.getEnclosedElements())) {
+            collect(nested, viewModel, androidViewModel, entries);
+        }
+        if (!isAccessible(type) || type.getModifiers().contains(Modifier.ABSTRACT)) {
+            return;
+        }
+        Types types = processingEnv.getTypeUtils();
+        TypeMirror erased = types.erasure(type.asType());
+        if (!types.isSubtype(erased, types.erasure(viewModel.asType()))) {
+            return;
+        }
+        boolean isAndroidViewModel = androidViewModel != null
+                && types.isSubtype(erased, types.erasure(androidViewModel.asType()));
+
+        boolean hasEmptyConstructor = false;
+        boolean hasApplicationConstructor = false;
+        for (ExecutableElement constructor
+                : ElementFilter.constructorsIn(type.getEnclosedElements())) {
+            if (!constructor.getModifiers().contains(Modifier.PUBLIC)) {
+                continue;
+            }
+            List<? extends VariableElement> parameters = constructor.getParameters();
+            if (parameters.isEmpty()) {
+                hasEmptyConstructor = true;
+            } else if (parameters.size() == 1 && APPLICATION.equals(
+                    types.erasure(parameters.get(0).asType()).toString())) {
+                hasApplicationConstructor = true;
+            }
+        }
+        // 与反射工厂的行为保持一致：只有 AndroidViewModel 才会用 Application 构造函数
+        hasApplicationConstructor &= isAndroidViewModel;
+        if (!hasEmptyConstructor && !hasApplicationConstructor) {
+            return;
+        }
+        String binaryName = processingEnv.getElementUtils().getBinaryName(type).toString();
+        entries.put(binaryName, new Entry(type.getQualifiedName().toString(),
+                hasEmptyConstructor, hasApplicationConstructor));
+    }
+
+    /**
+     * 生成的索引类不一定和 ViewModel 在同一个包中，只能访问 public 的顶层类或者 public static 的嵌套类
+     */
+    private static boolean isAccessible(TypeElement type) {
+        Element current = type;
+        while (current instanceof TypeElement) {
+            TypeElement currentType = (TypeElement) current;
+            if (!currentType.getModifiers().contains(Modifier.PUBLIC)) {
+                return false;
+            }
+            if (currentType.getNestingKind() == NestingKind.MEMBER
+                    && !currentType.getModifiers().contains(Modifier.STATIC)) {
+                return false;
+            }
+            if (currentType.getNestingKind() != NestingKind.TOP_LEVEL
+                    && currentType.getNestingKind() != NestingKind.MEMBER) {
+                return false;
+            }
+            current = currentType.getEnclosingElement();
+        }
+        return true;
+    }
+
+    /**
+     * 编译时 classpath 上能看到的库模块索引，按类名排序
+     */
+    private List<String> moduleIndexes() {
+        PackageElement pkg = processingEnv.getElementUtils().getPackageElement(INDEX_PACKAGE);
+        TypeElement index = processingEnv.getElementUtils().getTypeElement(INDEX_INTERFACE);
+        if (pkg == null || index == null) {
+            return Collections.emptyList();
+        }
+        Types types = processingEnv.getTypeUtils();
+        Set<String> names = new TreeSet<>();
+        for (TypeElement type : ElementFilter.typesIn(pkg.getEnclosedElements())) {
+            if (type.getSimpleName().toString().startsWith(MODULE_INDEX_PREFIX)
+                    && type.getModifiers().contains(Modifier.PUBLIC)
+                    && types.isSubtype(type.asType(), index.asType())) {
+                names.add(type.getQualifiedName().toString());
+            }
+        }
+        return new ArrayList<>(names);
+    }
+
+    private static String toIdentifier(String module) {
+        StringBuilder identifier = new StringBuilder(module.length());
+        for (int i = 0; i < module.length(); i++) {
+            char c = module.charAt(i);
+            identifier.append(Character.isJavaIdentifierPart(c) ? c : '_');
+        }
+        return identifier.toString();
+    }
+
+    private void writeIndex(String className, Map<String, Entry> entries, List<String> modules) {
+        int lastDot = className.lastIndexOf('.');
+        String packageName = lastDot < 0 ? null : className.substring(0, lastDot);
+        String simpleName = className.substring(lastDot + 1);
+
+        StringBuilder source = new StringBuilder();
+        if (packageName != null) {
+            source.append("package ").append(packageName).append(";\n\n");
+        }
+        // 索引可能和用户的类在同一个包中，全部使用完整类名，避免和同名的类冲突
+        source.append("/**\n")
+                .append(" * Generated by ").append(ViewModelFactoryProcessor.class.getName())
+                .append(". Do not edit.\n")
+                .append(" */\n")
+                .append("public final class ").append(simpleName)
+                .append(" implements ").append(INDEX_INTERFACE).append(" {\n\n");
+        if (!modules.isEmpty()) {
+            source.append("    private static final ").append(INDEX_INTERFACE)
+                    .append("[] MODULES = {\n");
+            for (String module : modules) {
+                source.append("            new ").append(module).append("(),\n");
+            }
+            source.append("    };\n\n");
+        }
+        source.append("    @Override\n")
+                .append("    @SuppressWarnings({\"unchecked\", \"rawtypes\"})\n")
+                .append("    public <T extends ").append(VIEW_MODEL)
+                .append("> T create(java.lang.Class<T> modelClass, ").append(APPLICATION)
+                .append(" application) {\n")
+                .append("        switch (modelClass.getName()) {\n");
+        for (Map.Entry<String, Entry> mapEntry : entries.entrySet()) {
+            Entry entry = mapEntry.getValue();
+            source.append("            case \"").append(mapEntry.getKey()).append("\":\n")
+                    .append("                if (modelClass != ").append(entry.mSourceName)
+                    .append(".class) {\n")
+                    .append("                    return null;\n")
+                    .append("                }\n");
+            if (entry.mApplicationConstructor) {
+                source.append("                if (application != null) {\n")
+                        .append("                    return (T) new ").append(entry.mSourceName)
+                        .append("(application);\n")
+                        .append("                }\n");
+            }
+            if (entry.mEmptyConstructor) {
+                source.append("                return (T) new ").append(entry.mSourceName)
+                        .append("();\n");
+            } else {
+                source.append("                return null;\n");
+            }
+        }
+        source.append("            default:\n")
+                .append("                break;\n")
+                .append("        }\n");
+        if (!modules.isEmpty()) {
+            source.append("        for (").append(INDEX_INTERFACE).append(" module : MODULES) {\n")
+                    .append("            T viewModel = module.create(modelClass, application);\n")
+                    .append("            if (viewModel != null) {\n")
+                    .append("                return viewModel;\n")
+                    .append("            }\n")
+                    .append("        }\n");
+        }
+        source.append("        return null;\n")
+                .append("    }\n")
+                .append("}\n");
+
+        TypeElement[] originating = new TypeElement[entries.size()];
+        int i = 0;
+        for (Entry entry : entries.values()) {
+            originating[i++] = processingEnv.getElementUtils().getTypeElement(entry.mSourceName);
+        }
+        try {
+            JavaFileObject file = processingEnv.getFiler().createSourceFile(className, originating);
+            write(file, source.toString());
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                    "Cannot write " + className + ": " + e.getMessage());
+        }
+    }
+
+    private static void write(FileObject file, String content) throws IOException {
+        Writer writer = file.openWriter();
+        try {
+            writer.write(content);
+        } finally {
+            writer.close();
+        }
+    }
+
+    private static final class Entry {
+        final String mSourceName;
+        final boolean mEmptyConstructor;
+        final boolean mApplicationConstructor;
+
+        Entry(String sourceName, boolean emptyConstructor, boolean applicationConstructor) {
+            mSourceName = sourceName;
+            mEmptyConstructor = emptyConstructor;
+            mApplicationConstructor = applicationConstructor;
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package android.arch.lifecycle;
+
+/**
+ * 标记接口：ViewModel 实现这个接口，表示它的 {@link ViewModel#onCleared()} 可以在后台线程执行
+ * （例如关闭数据库 cursor、刷新缓存、取消网络请求），不依赖主线程。
+ * <p>
+ * 只有通过 {@link ViewModelTeardown#setEnabled(boolean)} 打开后台销毁后才会生效，
+ * 否则仍然在 {@link ViewModelStore#clear()} 的调用线程上执行。
+ */
+public interface BackgroundClearable {
+}
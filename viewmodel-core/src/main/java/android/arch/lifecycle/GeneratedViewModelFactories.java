@@ -0,0 +1,49 @@
+package android.arch.lifecycle;
+
+import android.app.Application;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * 加载注解处理器在应用模块中生成的 {@link ViewModelFactoryIndex}，整个进程只加载一次。
+ * 类名固定，直接 Class.forName，不扫描 jar / APK 中的资源；库模块的索引由它直接调用。
+ * 没有生成索引（例如没有配置 annotationProcessor）时所有查询都返回 null。
+ */
+final class GeneratedViewModelFactories {
+
+    // 和 viewmodel-compiler 中 ViewModelFactoryProcessor.ROOT_INDEX 一致
+    static final String ROOT_INDEX = "android.arch.lifecycle.GeneratedViewModelFactoryIndex";
+
+    private GeneratedViewModelFactories() {
+    }
+
+    // 静态内部类持有，第一次用到时才加载，由类加载机制保证线程安全
+    private static final class Holder {
+        static final ViewModelFactoryIndex INDEX = load();
+    }
+
+    @Nullable
+    private static ViewModelFactoryIndex load() {
+        Class<?> indexClass;
+        try {
+            indexClass = Class.forName(ROOT_INDEX, true,
+                    ViewModelFactoryIndex.class.getClassLoader());
+        } catch (ClassNotFoundException e) {
+            return null;
+        }
+        try {
+            return (ViewModelFactoryIndex) indexClass.newInstance();
+        } catch (InstantiationException e) {
+            throw new IllegalStateException("Cannot instantiate " + ROOT_INDEX, e);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException("Cannot instantiate " + ROOT_INDEX, e);
+        }
+    }
+
+    @Nullable
+    static <T extends ViewModel> T create(@NonNull Class<T> modelClass,
+            @Nullable Application application) {
+        ViewModelFactoryIndex index = Holder.INDEX;
+        return index == null ? null : index.create(modelClass, application);
+    }
+}
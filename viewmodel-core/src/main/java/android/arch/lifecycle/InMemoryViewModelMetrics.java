@@ -0,0 +1,197 @@
+package android.arch.lifecycle;
+
+import android.support.annotation.NonNull;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 默认的内存聚合实现：计数器加上按 2 的幂分桶的直方图，全部无锁，可以在测试中 {@link #dump()} 出来查看。
+ * <pre>
+ * InMemoryViewModelMetrics metrics = new InMemoryViewModelMetrics();
+ * ViewModelMetrics.setListener(metrics);
+ * ...
+ * Log.d(TAG, metrics.dump());
+ * </pre>
+ */
+public class InMemoryViewModelMetrics implements ViewModelMetricsListener {
+
+    private final AtomicLong mHits = new AtomicLong();
+    private final AtomicLong mMisses = new AtomicLong();
+    private final AtomicLong mHolderCacheHits = new AtomicLong();
+    private final AtomicLong mHolderCreations = new AtomicLong();
+
+    private final Histogram mCreateNanos = new Histogram();
+    private final Histogram mStoreSizes = new Histogram();
+    private final Histogram mClearNanos = new Histogram();
+    private final Histogram mClearedCounts = new Histogram();
+    private final Histogram mHolderLookupNanos = new Histogram();
+
+    @Override
+    public void onLookup(@NonNull String key, boolean hit) {
+        (hit ? mHits : mMisses).incrementAndGet();
+    }
+
+    @Override
+    public void onCreated(@NonNull Class<? extends ViewModel> modelClass, long durationNanos) {
+        mCreateNanos.record(durationNanos);
+    }
+
+    @Override
+    public void onStoreSize(@NonNull ViewModelStore store, int size) {
+        mStoreSizes.record(size);
+    }
+
+    @Override
+    public void onStoreCleared(int clearedCount, long durationNanos) {
+        mClearedCounts.record(clearedCount);
+        mClearNanos.record(durationNanos);
+    }
+
+    @Override
+    public void onHolderFragmentLookup(boolean cached, boolean created, long durationNanos) {
+        if (cached) {
+            mHolderCacheHits.incrementAndGet();
+        }
+        if (created) {
+            mHolderCreations.incrementAndGet();
+        }
+        mHolderLookupNanos.record(durationNanos);
+    }
+
+    public long getHitCount() {
+        return mHits.get();
+    }
+
+    public long getMissCount() {
+        return mMisses.get();
+    }
+
+    @NonNull
+    public Histogram getCreateLatency() {
+        return mCreateNanos;
+    }
+
+    @NonNull
+    public Histogram getStoreSize() {
+        return mStoreSizes;
+    }
+
+    @NonNull
+    public Histogram getClearLatency() {
+        return mClearNanos;
+    }
+
+    @NonNull
+    public Histogram getHolderLookupLatency() {
+        return mHolderLookupNanos;
+    }
+
+    /**
+     * 所有数据清零
+     */
+    public void reset() {
+        mHits.set(0);
+        mMisses.set(0);
+        mHolderCacheHits.set(0);
+        mHolderCreations.set(0);
+        mCreateNanos.reset();
+        mStoreSizes.reset();
+        mClearNanos.reset();
+        mClearedCounts.reset();
+        mHolderLookupNanos.reset();
+    }
+
+    /**
+     * 以文本形式输出所有数据
+     */
+    @NonNull
+    public String dump() {
+        StringBuilder out = new StringBuilder();
+        out.append("lookups: hit=").append(mHits.get())
+                .append(" miss=").append(mMisses.get()).append('\n');
+        out.append("create ns: ").append(mCreateNanos).append('\n');
+        out.append("store size: ").append(mStoreSizes).append('\n');
+        out.append("clear ns: ").append(mClearNanos).append('\n');
+        out.append("cleared per clear: ").append(mClearedCounts).append('\n');
+        out.append("holder lookups: cached=").append(mHolderCacheHits.get())
+                .append(" created=").append(mHolderCreations.get())
+                .append(" ns: ").append(mHolderLookupNanos).append('\n');
+        return out.toString();
+    }
+
+    /**
+     * 按 2 的幂分桶的直方图：第 i 个桶统计 [2^(i-1), 2^i) 范围内的值，第 0 个桶统计 0
+     */
+    public static final class Histogram {
+        private static final int BUCKETS = 64;
+
+        private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKETS);
+        private final AtomicLong mCount = new AtomicLong();
+        private final AtomicLong mSum = new AtomicLong();
+        private final AtomicLong mMax = new AtomicLong();
+
+        void record(long value) {
+            if (value < 0) {
+                value = 0;
+            }
+            mBuckets.incrementAndGet(BUCKETS - Long.numberOfLeadingZeros(value));
+            mCount.incrementAndGet();
+            mSum.addAndGet(value);
+            long max = mMax.get();
+            while (value > max && !mMax.compareAndSet(max, value)) {
+                max = mMax.get();
+            }
+        }
+
+        void reset() {
+            for (int i = 0; i < BUCKETS; i++) {
+                mBuckets.set(i, 0);
+            }
+            mCount.set(0);
+            mSum.set(0);
+            mMax.set(0);
+        }
+
+        public long getCount() {
+            return mCount.get();
+        }
+
+        public long getMax() {
+            return mMax.get();
+        }
+
+        public double getMean() {
+            long count = mCount.get();
+            return count == 0 ? 0 : (double) mSum.get() / count;
+        }
+
+        /**
+         * 估算分位数，返回所在桶的上界
+         *
+         * @param quantile 0 ~ 1
+         */
+        public long getPercentile(double quantile) {
+            long count = mCount.get();
+            if (count == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(quantile * count);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += mBuckets.get(i);
+                if (seen >= rank) {
+                    return i == 0 ? 0 : (i >= 63 ? Long.MAX_VALUE : (1L << i) - 1);
+                }
+            }
+            return mMax.get();
+        }
+
+        @Override
+        public String toString() {
+            return "count=" + getCount() + " mean=" + (long) getMean()
+                    + " p50<=" + getPercentile(0.5) + " p90<=" + getPercentile(0.9)
+                    + " p99<=" + getPercentile(0.99) + " max=" + getMax();
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package android.arch.lifecycle;
+
+import android.support.annotation.MainThread;
+import android.support.annotation.NonNull;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * 列表项 ViewModel 的复用池，代替为每一行用 {@code get(key, class)} 在 ViewModelStore 中放一个 ViewModel：
+ * store 中只有池本身一个 ViewModel。
+ * <ul>
+ * <li>{@link #get(String)} 返回绑定到 key 的 ViewModel；没有时复用空闲的，没有空闲的就新建。
+ * 绑定中的 ViewModel 永远不会被拿去给别的 key 用，绑定的数量超过 capacity 时池会临时变大；</li>
+ * <li>{@link #release(String)} 在列表项被回收时解除绑定：取消它的后台任务、onRecycle，
+ * 池中总数没超过 capacity 时放回空闲列表，否则 onCleared；</li>
+ * <li>池随 store 一起 clear，此时所有 ViewModel 调用 onCleared。</li>
+ * </ul>
+ * 滚动到稳定状态后不再创建 ViewModel，也不再调用 onCleared。
+ * <pre>
+ * ItemViewModelPool&lt;RowModel&gt; pool = ItemViewModelPool.of(ViewModelStores.of(this),
+ *         RowModel.class, factory, 32);
+ * // onBindViewHolder
+ * holder.bind(pool.get(item.getId()));
+ * // onViewRecycled
+ * pool.release(holder.getItemId());
+ * </pre>
+ */
+public final class ItemViewModelPool<T extends ViewModel & RecyclableViewModel> extends ViewModel {
+
+    private static final String KEY_PREFIX = "android.arch.lifecycle.ItemViewModelPool:";
+
+    private final Class<T> mModelClass;
+    // 每次 of() 换成调用方传入的工厂，池会跨配置改变存活，不能一直留着第一个页面的工厂
+    private ViewModelProvider.Factory mFactory;
+    private int mCapacity;
+
+    // 绑定中的 ViewModel
+    private final HashMap<String, T> mBound = new HashMap<>();
+    // 空闲的 ViewModel，已经 onRecycle
+    private final ArrayDeque<T> mFree = new ArrayDeque<>();
+
+    private long mCreatedCount;
+    private long mBindCount;
+
+    ItemViewModelPool(Class<T> modelClass, ViewModelProvider.Factory factory, int capacity) {
+        mModelClass = modelClass;
+        mFactory = factory;
+        mCapacity = capacity;
+    }
+
+    /**
+     * 返回 store 中 modelClass 的复用池，第一次调用时创建。capacity 和上一次不同时按新的上限调整
+     *
+     * @param factory  创建 modelClass 的工厂，之后新建的 ViewModel 都用这次传入的工厂。
+     *                 池和 store 活得一样久，工厂不能引用 Activity、Fragment 或者 View
+     * @param capacity 池中保留的 ViewModel 总数的上限，通常是一屏能显示的行数再加几行
+     */
+    @NonNull
+    @MainThread
+    public static <T extends ViewModel & RecyclableViewModel> ItemViewModelPool<T> of(
+            @NonNull ViewModelStore store, @NonNull final Class<T> modelClass,
+            @NonNull final ViewModelProvider.Factory factory, final int capacity) {
+        checkCapacity(capacity);
+        //noinspection unchecked
+        ItemViewModelPool<T> pool = store.getOrCreate(
+                KEY_PREFIX + ViewModelProvider.defaultKey(modelClass), ItemViewModelPool.class,
+                new ViewModelProvider.Factory() {
+                    @NonNull
+                    @Override
+                    public <P extends ViewModel> P create(@NonNull Class<P> poolClass) {
+                        //noinspection unchecked
+                        return (P) new ItemViewModelPool<>(modelClass, factory, capacity);
+                    }
+                });
+        if (pool.mModelClass != modelClass) {
+            throw new IllegalStateException("Pool for " + modelClass + " holds " + pool.mModelClass);
+        }
+        pool.mFactory = factory;
+        pool.setCapacity(capacity);
+        return pool;
+    }
+
+    /**
+     * 返回绑定到 key 的 ViewModel，没有时复用或者创建一个并绑定到 key
+     */
+    @NonNull
+    @MainThread
+    public T get(@NonNull String key) {
+        T model = mBound.get(key);
+        if (model != null) {
+            return model;
+        }
+        if (!mFree.isEmpty()) {
+            model = mFree.pop();
+        } else {
+            // 只复用空闲的；都在绑定中时超过 capacity 也新建，多出来的在 release 时 onCleared
+            model = mFactory.create(mModelClass);
+            mCreatedCount++;
+        }
+        mBound.put(key, model);
+        model.onBind(key);
+        mBindCount++;
+        return model;
+    }
+
+    /**
+     * key 对应的列表项不再显示，把它的 ViewModel 解除绑定，放回空闲列表或者在池超过上限时清除
+     */
+    @MainThread
+    public void release(@NonNull String key) {
+        T model = mBound.remove(key);
+        if (model == null) {
+            return;
+        }
+        if (mBound.size() + mFree.size() >= mCapacity) {
+            model.dispatchCleared();
+            return;
+        }
+        // 上一个 key 的任务不能在复用之后再写回结果
+        model.resetTasks();
+        model.onRecycle();
+        mFree.push(model);
+    }
+
+    /**
+     * 修改池中保留的 ViewModel 总数的上限，超出的空闲 ViewModel 立即清除；
+     * 绑定中的不受影响，等它们 release 时再清除
+     */
+    @MainThread
+    public void setCapacity(int capacity) {
+        checkCapacity(capacity);
+        mCapacity = capacity;
+        List<T> removed = new ArrayList<>();
+        while (mBound.size() + mFree.size() > capacity && !mFree.isEmpty()) {
+            removed.add(mFree.pop());
+        }
+        for (T model : removed) {
+            model.dispatchCleared();
+        }
+    }
+
+    /**
+     * @return 当前绑定中的 ViewModel 数量
+     */
+    public int getBoundCount() {
+        return mBound.size();
+    }
+
+    /**
+     * @return 创建过的 ViewModel 数量，稳定后不再增长
+     */
+    public long getCreatedCount() {
+        return mCreatedCount;
+    }
+
+    /**
+     * @return 绑定的总次数，减去 getCreatedCount() 就是复用的次数
+     */
+    public long getBindCount() {
+        return mBindCount;
+    }
+
+    @Override
+    protected void onCleared() {
+        List<T> models = new ArrayList<>(mBound.values());
+        models.addAll(mFree);
+        mBound.clear();
+        mFree.clear();
+        for (T model : models) {
+            model.dispatchCleared();
+        }
+    }
+
+    private static void checkCapacity(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity <= 0: " + capacity);
+        }
+    }
+}
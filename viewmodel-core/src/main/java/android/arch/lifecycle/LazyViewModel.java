@@ -0,0 +1,60 @@
+package android.arch.lifecycle;
+
+import android.support.annotation.MainThread;
+import android.support.annotation.NonNull;
+
+/**
+ * 延迟创建的 ViewModel 句柄，由 {@link ViewModelProvider#lazy(Class)} 返回。
+ * <p>
+ * 只记住 ViewModelProvider（也就是 ViewModelStore 和 Factory）和 key，第一次调用 {@link #get()}
+ * 时才通过正常的 {@link ViewModelProvider#get(String, Class)} 创建，之后的读取只是一次字段判断。
+ * 适合只在某个 tab 或者对话框里才用到的 ViewModel，把创建开销移出首帧：
+ * <pre>
+ * private LazyViewModel&lt;DetailModel&gt; mDetailModel;
+ *
+ * protected void onCreate(Bundle savedInstanceState) {
+ *     mDetailModel = ViewModelProviders.of(this).lazy(DetailModel.class);
+ * }
+ *
+ * void onDetailTabSelected() {
+ *     mDetailModel.get().load();
+ * }
+ * </pre>
+ * 句柄和获取它的 Activity / Fragment 生命周期一致，不要在 ViewModelStore clear 之后继续使用。
+ */
+public final class LazyViewModel<T extends ViewModel> {
+
+    private final ViewModelProvider mProvider;
+    private final String mKey;
+    private final Class<T> mModelClass;
+
+    private volatile T mValue;
+
+    LazyViewModel(@NonNull ViewModelProvider provider, @NonNull String key,
+            @NonNull Class<T> modelClass) {
+        mProvider = provider;
+        mKey = key;
+        mModelClass = modelClass;
+    }
+
+    /**
+     * 返回 ViewModel，第一次调用时才获取或创建
+     */
+    @NonNull
+    @MainThread
+    public T get() {
+        T value = mValue;
+        if (value == null) {
+            value = mProvider.get(mKey, mModelClass);
+            mValue = value;
+        }
+        return value;
+    }
+
+    /**
+     * 是否已经通过 {@link #get()} 拿到过 ViewModel
+     */
+    public boolean isInitialized() {
+        return mValue != null;
+    }
+}
@@ -0,0 +1,538 @@
+package android.arch.lifecycle;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * 不可变的 Map 状态，适合 ViewModel 通过 LiveData 发布给界面：每次修改返回一个新的 PersistentMap，
+ * 旧的不变，两者共享没有修改的部分，不需要为了保持不可变而整个复制一遍。
+ * <p>
+ * 结构是 HAMT（hash array mapped trie）：每层用 hash 的 5 位在一个 32 位 bitmap 中定位，
+ * 节点数组只存放实际存在的分支。{@link #get}、{@link #put}、{@link #remove} 都是 O(log32 n)，
+ * 修改只复制从根到这个 key 的一条路径。值和原来是同一个对象（引用相同）时返回 this。
+ * <p>
+ * {@link #diff} 同时遍历两个版本，同一个节点（引用相同）的整棵子树直接跳过，值按引用比较。
+ * key 不能为 null。
+ */
+public final class PersistentMap<K, V> implements Iterable<Map.Entry<K, V>> {
+
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+
+    private static final PersistentMap<?, ?> EMPTY = new PersistentMap<>(null, 0);
+
+    private static final Object NOT_FOUND = new Object();
+
+    /**
+     * 两个版本之间的变化
+     */
+    public interface DiffCallback<K, V> {
+        void onAdded(K key, V value);
+
+        void onRemoved(K key, V value);
+
+        /**
+         * key 的值换成了另一个对象
+         */
+        void onChanged(K key, V oldValue, V newValue);
+    }
+
+    // 为 null 表示空
+    private final Node mRoot;
+    private final int mSize;
+
+    private PersistentMap(Node root, int size) {
+        mRoot = root;
+        mSize = size;
+    }
+
+    @NonNull
+    public static <K, V> PersistentMap<K, V> empty() {
+        //noinspection unchecked
+        return (PersistentMap<K, V>) EMPTY;
+    }
+
+    @NonNull
+    public static <K, V> PersistentMap<K, V> from(@NonNull Map<? extends K, ? extends V> map) {
+        PersistentMap<K, V> result = empty();
+        for (Map.Entry<? extends K, ? extends V> entry : map.entrySet()) {
+            result = result.put(entry.getKey(), entry.getValue());
+        }
+        return result;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    @Nullable
+    public V get(@NonNull Object key) {
+        if (mRoot == null) {
+            return null;
+        }
+        Object value = mRoot.find(0, hash(key), key, null);
+        //noinspection unchecked
+        return (V) value;
+    }
+
+    public boolean containsKey(@NonNull Object key) {
+        return mRoot != null && mRoot.find(0, hash(key), key, NOT_FOUND) != NOT_FOUND;
+    }
+
+    /**
+     * @return key 对应 value 的新版本；value 和原来是同一个对象时返回 this
+     */
+    @NonNull
+    public PersistentMap<K, V> put(@NonNull K key, V value) {
+        if (key == null) {
+            throw new NullPointerException("key == null");
+        }
+        Box added = new Box();
+        Node root = (mRoot == null ? BitmapNode.EMPTY : mRoot).assoc(0, hash(key), key, value, added);
+        if (root == mRoot) {
+            return this;
+        }
+        return new PersistentMap<>(root, added.mValue ? mSize + 1 : mSize);
+    }
+
+    /**
+     * @return 去掉 key 的新版本；没有 key 时返回 this
+     */
+    @NonNull
+    public PersistentMap<K, V> remove(@NonNull Object key) {
+        if (mRoot == null) {
+            return this;
+        }
+        Node root = mRoot.without(0, hash(key), key);
+        if (root == mRoot) {
+            return this;
+        }
+        return root == null ? PersistentMap.<K, V>empty() : new PersistentMap<K, V>(root, mSize - 1);
+    }
+
+    /**
+     * 按 hash 顺序遍历，不复制
+     */
+    @NonNull
+    @Override
+    public Iterator<Map.Entry<K, V>> iterator() {
+        return new EntryIterator<>(mRoot);
+    }
+
+    /**
+     * 比较两个版本，把变化报告给 callback。两者共享的子树直接跳过
+     */
+    public static <K, V> void diff(@NonNull PersistentMap<K, V> oldMap,
+            @NonNull PersistentMap<K, V> newMap, @NonNull DiffCallback<K, V> callback) {
+        diffNodes(oldMap.mRoot, newMap.mRoot, 0, callback);
+    }
+
+    private static <K, V> void diffNodes(Node oldNode, Node newNode, int shift,
+            DiffCallback<K, V> callback) {
+        if (oldNode == newNode) {
+            return;
+        }
+        if (oldNode == null) {
+            reportAll(newNode, callback, true);
+            return;
+        }
+        if (newNode == null) {
+            reportAll(oldNode, callback, false);
+            return;
+        }
+        if (oldNode instanceof BitmapNode && newNode instanceof BitmapNode) {
+            diffBitmapNodes((BitmapNode) oldNode, (BitmapNode) newNode, shift, callback);
+            return;
+        }
+        // hash 冲突节点很少见，逐个查找
+        for (Map.Entry<K, V> entry : new EntryIterable<K, V>(oldNode)) {
+            Object value = newNode.find(shift, hash(entry.getKey()), entry.getKey(), NOT_FOUND);
+            if (value == NOT_FOUND) {
+                callback.onRemoved(entry.getKey(), entry.getValue());
+            } else if (value != entry.getValue()) {
+                //noinspection unchecked
+                callback.onChanged(entry.getKey(), entry.getValue(), (V) value);
+            }
+        }
+        for (Map.Entry<K, V> entry : new EntryIterable<K, V>(newNode)) {
+            if (oldNode.find(shift, hash(entry.getKey()), entry.getKey(), NOT_FOUND) == NOT_FOUND) {
+                callback.onAdded(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <K, V> void diffBitmapNodes(BitmapNode oldNode, BitmapNode newNode, int shift,
+            DiffCallback<K, V> callback) {
+        int bits = oldNode.mBitmap | newNode.mBitmap;
+        while (bits != 0) {
+            int bit = bits & -bits;
+            bits ^= bit;
+            boolean inOld = (oldNode.mBitmap & bit) != 0;
+            boolean inNew = (newNode.mBitmap & bit) != 0;
+            Object oldKey = null;
+            Object oldValue = null;
+            Object newKey = null;
+            Object newValue = null;
+            if (inOld) {
+                int index = oldNode.index(bit);
+                oldKey = oldNode.mArray[2 * index];
+                oldValue = oldNode.mArray[2 * index + 1];
+            }
+            if (inNew) {
+                int index = newNode.index(bit);
+                newKey = newNode.mArray[2 * index];
+                newValue = newNode.mArray[2 * index + 1];
+            }
+            if (!inOld || !inNew) {
+                // 只有一边有这个分支
+                Object key = inOld ? oldKey : newKey;
+                Object value = inOld ? oldValue : newValue;
+                if (key == null) {
+                    reportAll((Node) value, callback, inNew);
+                } else if (inNew) {
+                    callback.onAdded((K) key, (V) value);
+                } else {
+                    callback.onRemoved((K) key, (V) value);
+                }
+            } else if (oldKey == null && newKey == null) {
+                diffNodes((Node) oldValue, (Node) newValue, shift + BITS, callback);
+            } else if (oldKey != null && newKey != null) {
+                if (oldKey.equals(newKey)) {
+                    if (oldValue != newValue) {
+                        callback.onChanged((K) oldKey, (V) oldValue, (V) newValue);
+                    }
+                } else {
+                    callback.onRemoved((K) oldKey, (V) oldValue);
+                    callback.onAdded((K) newKey, (V) newValue);
+                }
+            } else {
+                // 一边是单个 key，一边是子树：把单个 key 放进一个节点再比较
+                diffNodes(asNode(shift + BITS, oldKey, oldValue),
+                        asNode(shift + BITS, newKey, newValue), shift + BITS, callback);
+            }
+        }
+    }
+
+    private static Node asNode(int shift, Object key, Object value) {
+        if (key == null) {
+            return (Node) value;
+        }
+        return BitmapNode.EMPTY.assoc(shift, hash(key), key, value, new Box());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <K, V> void reportAll(Node node, DiffCallback<K, V> callback, boolean added) {
+        for (Map.Entry<K, V> entry : new EntryIterable<K, V>(node)) {
+            if (added) {
+                callback.onAdded(entry.getKey(), entry.getValue());
+            } else {
+                callback.onRemoved(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    private static int hash(Object key) {
+        int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    private static int bitpos(int hash, int shift) {
+        return 1 << ((hash >>> shift) & MASK);
+    }
+
+    private static Object[] cloneAndSet(Object[] array, int index, Object value) {
+        Object[] copy = array.clone();
+        copy[index] = value;
+        return copy;
+    }
+
+    /**
+     * put 时记录是否新增了 key
+     */
+    private static final class Box {
+        boolean mValue;
+    }
+
+    private interface Node {
+        Node assoc(int shift, int hash, Object key, Object value, Box added);
+
+        /**
+         * @return 去掉 key 后的节点，节点变空时返回 null
+         */
+        Node without(int shift, int hash, Object key);
+
+        Object find(int shift, int hash, Object key, Object notFound);
+
+        /**
+         * key / value 交替存放；BitmapNode 中 key 为 null 时 value 是子节点
+         */
+        Object[] array();
+    }
+
+    private static final class BitmapNode implements Node {
+        static final BitmapNode EMPTY = new BitmapNode(0, new Object[0]);
+
+        final int mBitmap;
+        final Object[] mArray;
+
+        BitmapNode(int bitmap, Object[] array) {
+            mBitmap = bitmap;
+            mArray = array;
+        }
+
+        int index(int bit) {
+            return Integer.bitCount(mBitmap & (bit - 1));
+        }
+
+        @Override
+        public Node assoc(int shift, int hash, Object key, Object value, Box added) {
+            int bit = bitpos(hash, shift);
+            int index = index(bit);
+            if ((mBitmap & bit) != 0) {
+                Object existingKey = mArray[2 * index];
+                Object existingValue = mArray[2 * index + 1];
+                if (existingKey == null) {
+                    Node child = ((Node) existingValue).assoc(shift + BITS, hash, key, value, added);
+                    return child == existingValue
+                            ? this : new BitmapNode(mBitmap, cloneAndSet(mArray, 2 * index + 1, child));
+                }
+                if (key.equals(existingKey)) {
+                    return value == existingValue
+                            ? this : new BitmapNode(mBitmap, cloneAndSet(mArray, 2 * index + 1, value));
+                }
+                // 同一个位置有另一个 key，往下一层分开
+                added.mValue = true;
+                Object[] array = mArray.clone();
+                array[2 * index] = null;
+                array[2 * index + 1] = createNode(shift + BITS, existingKey, existingValue,
+                        hash, key, value);
+                return new BitmapNode(mBitmap, array);
+            }
+            added.mValue = true;
+            Object[] array = new Object[mArray.length + 2];
+            System.arraycopy(mArray, 0, array, 0, 2 * index);
+            array[2 * index] = key;
+            array[2 * index + 1] = value;
+            System.arraycopy(mArray, 2 * index, array, 2 * index + 2, mArray.length - 2 * index);
+            return new BitmapNode(mBitmap | bit, array);
+        }
+
+        @Override
+        public Node without(int shift, int hash, Object key) {
+            int bit = bitpos(hash, shift);
+            if ((mBitmap & bit) == 0) {
+                return this;
+            }
+            int index = index(bit);
+            Object existingKey = mArray[2 * index];
+            Object existingValue = mArray[2 * index + 1];
+            if (existingKey == null) {
+                Node child = ((Node) existingValue).without(shift + BITS, hash, key);
+                if (child == existingValue) {
+                    return this;
+                }
+                if (child != null) {
+                    return new BitmapNode(mBitmap, cloneAndSet(mArray, 2 * index + 1, child));
+                }
+            } else if (!key.equals(existingKey)) {
+                return this;
+            }
+            if (mBitmap == bit) {
+                return null;
+            }
+            Object[] array = new Object[mArray.length - 2];
+            System.arraycopy(mArray, 0, array, 0, 2 * index);
+            System.arraycopy(mArray, 2 * index + 2, array, 2 * index, array.length - 2 * index);
+            return new BitmapNode(mBitmap ^ bit, array);
+        }
+
+        @Override
+        public Object find(int shift, int hash, Object key, Object notFound) {
+            int bit = bitpos(hash, shift);
+            if ((mBitmap & bit) == 0) {
+                return notFound;
+            }
+            int index = index(bit);
+            Object existingKey = mArray[2 * index];
+            Object existingValue = mArray[2 * index + 1];
+            if (existingKey == null) {
+                return ((Node) existingValue).find(shift + BITS, hash, key, notFound);
+            }
+            return key.equals(existingKey) ? existingValue : notFound;
+        }
+
+        @Override
+        public Object[] array() {
+            return mArray;
+        }
+
+        private static Node createNode(int shift, Object key1, Object value1, int hash2,
+                Object key2, Object value2) {
+            int hash1 = hash(key1);
+            if (hash1 == hash2) {
+                return new CollisionNode(hash1, new Object[]{key1, value1, key2, value2});
+            }
+            Box box = new Box();
+            return EMPTY.assoc(shift, hash1, key1, value1, box)
+                    .assoc(shift, hash2, key2, value2, box);
+        }
+    }
+
+    /**
+     * hash 完全相同的 key
+     */
+    private static final class CollisionNode implements Node {
+        final int mHash;
+        final Object[] mArray;
+
+        CollisionNode(int hash, Object[] array) {
+            mHash = hash;
+            mArray = array;
+        }
+
+        private int indexOf(Object key) {
+            for (int i = 0; i < mArray.length; i += 2) {
+                if (key.equals(mArray[i])) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        public Node assoc(int shift, int hash, Object key, Object value, Box added) {
+            if (hash != mHash) {
+                // 放进一个 BitmapNode 里再分开
+                return new BitmapNode(bitpos(mHash, shift), new Object[]{null, this})
+                        .assoc(shift, hash, key, value, added);
+            }
+            int index = indexOf(key);
+            if (index >= 0) {
+                return mArray[index + 1] == value
+                        ? this : new CollisionNode(mHash, cloneAndSet(mArray, index + 1, value));
+            }
+            added.mValue = true;
+            Object[] array = new Object[mArray.length + 2];
+            System.arraycopy(mArray, 0, array, 0, mArray.length);
+            array[mArray.length] = key;
+            array[mArray.length + 1] = value;
+            return new CollisionNode(mHash, array);
+        }
+
+        @Override
+        public Node without(int shift, int hash, Object key) {
+            int index = indexOf(key);
+            if (index < 0) {
+                return this;
+            }
+            if (mArray.length == 2) {
+                return null;
+            }
+            Object[] array = new Object[mArray.length - 2];
+            System.arraycopy(mArray, 0, array, 0, index);
+            System.arraycopy(mArray, index + 2, array, index, array.length - index);
+            return new CollisionNode(mHash, array);
+        }
+
+        @Override
+        public Object find(int shift, int hash, Object key, Object notFound) {
+            int index = indexOf(key);
+            return index >= 0 ? mArray[index + 1] : notFound;
+        }
+
+        @Override
+        public Object[] array() {
+            return mArray;
+        }
+    }
+
+    private static final class EntryIterable<K, V> implements Iterable<Map.Entry<K, V>> {
+        private final Node mRoot;
+
+        EntryIterable(Node root) {
+            mRoot = root;
+        }
+
+        @NonNull
+        @Override
+        public Iterator<Map.Entry<K, V>> iterator() {
+            return new EntryIterator<>(mRoot);
+        }
+    }
+
+    /**
+     * 用一个栈深度优先遍历，不复制节点
+     */
+    private static final class EntryIterator<K, V> implements Iterator<Map.Entry<K, V>> {
+        private final List<Object[]> mArrays = new ArrayList<>();
+        private final List<Integer> mPositions = new ArrayList<>();
+        private Map.Entry<K, V> mNext;
+
+        EntryIterator(Node root) {
+            if (root != null) {
+                push(root);
+            }
+            advance();
+        }
+
+        private void push(Node node) {
+            mArrays.add(node.array());
+            mPositions.add(0);
+        }
+
+        @SuppressWarnings("unchecked")
+        private void advance() {
+            mNext = null;
+            while (!mArrays.isEmpty()) {
+                int top = mArrays.size() - 1;
+                Object[] array = mArrays.get(top);
+                int position = mPositions.get(top);
+                if (position >= array.length) {
+                    mArrays.remove(top);
+                    mPositions.remove(top);
+                    continue;
+                }
+                mPositions.set(top, position + 2);
+                Object key = array[position];
+                if (key == null) {
+                    push((Node) array[position + 1]);
+                } else {
+                    mNext = new AbstractMap.SimpleImmutableEntry<>((K) key, (V) array[position + 1]);
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return mNext != null;
+        }
+
+        @Override
+        public Map.Entry<K, V> next() {
+            if (mNext == null) {
+                throw new NoSuchElementException();
+            }
+            Map.Entry<K, V> next = mNext;
+            advance();
+            return next;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,319 @@
+package android.arch.lifecycle;
+
+import android.support.annotation.NonNull;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * 不可变的列表状态，适合 ViewModel 通过 LiveData 发布给界面：每次修改返回一个新的 PersistentVector，
+ * 旧的不变，两者共享没有修改的部分，不需要为了保持不可变而整个复制一遍。
+ * <p>
+ * 结构是 32 叉的前缀树加一个尾部数组：{@link #get}、{@link #set} 是 O(log32 n)，
+ * {@link #add}、{@link #removeLast} 均摊 O(1)。修改成同一个对象（引用相同）时返回 this。
+ * <p>
+ * {@link #diff} 按 32 个元素一块比较两个版本，同一块数组（引用相同）直接跳过，只比较被修改过的块，
+ * 元素按引用比较。
+ */
+public final class PersistentVector<E> implements Iterable<E> {
+
+    private static final int BITS = 5;
+    private static final int WIDTH = 1 << BITS;
+    private static final int MASK = WIDTH - 1;
+
+    private static final Object[] EMPTY_NODE = new Object[WIDTH];
+
+    private static final PersistentVector<?> EMPTY =
+            new PersistentVector<>(0, BITS, EMPTY_NODE, new Object[0]);
+
+    /**
+     * 两个版本之间按位置的变化，不识别移动
+     */
+    public interface DiffCallback<E> {
+        /**
+         * index 位置的元素换成了另一个对象
+         */
+        void onChanged(int index, E oldItem, E newItem);
+
+        /**
+         * 新版本在末尾多出的元素
+         */
+        void onInserted(int index, E item);
+
+        /**
+         * 旧版本在末尾多出的元素
+         */
+        void onRemoved(int index, E item);
+    }
+
+    private final int mSize;
+    private final int mShift;
+    private final Object[] mRoot;
+    private final Object[] mTail;
+
+    private PersistentVector(int size, int shift, Object[] root, Object[] tail) {
+        mSize = size;
+        mShift = shift;
+        mRoot = root;
+        mTail = tail;
+    }
+
+    @NonNull
+    public static <E> PersistentVector<E> empty() {
+        //noinspection unchecked
+        return (PersistentVector<E>) EMPTY;
+    }
+
+    @NonNull
+    public static <E> PersistentVector<E> from(@NonNull Iterable<? extends E> items) {
+        PersistentVector<E> vector = empty();
+        for (E item : items) {
+            vector = vector.add(item);
+        }
+        return vector;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    public E get(int index) {
+        checkIndex(index);
+        //noinspection unchecked
+        return (E) arrayFor(index)[index & MASK];
+    }
+
+    /**
+     * @return index 位置换成 item 的新版本；item 和原来是同一个对象时返回 this
+     */
+    @NonNull
+    public PersistentVector<E> set(int index, E item) {
+        checkIndex(index);
+        if (index >= tailOffset()) {
+            if (mTail[index & MASK] == item) {
+                return this;
+            }
+            Object[] tail = mTail.clone();
+            tail[index & MASK] = item;
+            return new PersistentVector<>(mSize, mShift, mRoot, tail);
+        }
+        if (arrayFor(index)[index & MASK] == item) {
+            return this;
+        }
+        return new PersistentVector<>(mSize, mShift, doSet(mShift, mRoot, index, item), mTail);
+    }
+
+    /**
+     * @return 在末尾加上 item 的新版本
+     */
+    @NonNull
+    public PersistentVector<E> add(E item) {
+        if (mSize - tailOffset() < WIDTH) {
+            Object[] tail = Arrays.copyOf(mTail, mTail.length + 1);
+            tail[mTail.length] = item;
+            return new PersistentVector<>(mSize + 1, mShift, mRoot, tail);
+        }
+        // 尾部满了，放进树里
+        Object[] root;
+        int shift = mShift;
+        if ((mSize >>> BITS) > (1 << mShift)) {
+            // 树满了，加高一层
+            root = new Object[WIDTH];
+            root[0] = mRoot;
+            root[1] = newPath(mShift, mTail);
+            shift += BITS;
+        } else {
+            root = pushTail(mShift, mRoot, mTail);
+        }
+        return new PersistentVector<>(mSize + 1, shift, root, new Object[]{item});
+    }
+
+    /**
+     * @return 去掉最后一个元素的新版本
+     */
+    @NonNull
+    public PersistentVector<E> removeLast() {
+        if (mSize == 0) {
+            throw new IllegalStateException("Can't remove from an empty vector");
+        }
+        if (mSize == 1) {
+            return empty();
+        }
+        if (mSize - tailOffset() > 1) {
+            return new PersistentVector<>(mSize - 1, mShift, mRoot,
+                    Arrays.copyOf(mTail, mTail.length - 1));
+        }
+        // 尾部只剩一个，树里最后一块变成新的尾部
+        Object[] tail = arrayFor(mSize - 2);
+        Object[] root = popTail(mShift, mRoot);
+        int shift = mShift;
+        if (root == null) {
+            root = EMPTY_NODE;
+        }
+        if (mShift > BITS && root[1] == null) {
+            root = (Object[]) root[0];
+            shift -= BITS;
+        }
+        return new PersistentVector<>(mSize - 1, shift, root, tail);
+    }
+
+    /**
+     * 只读的 List 视图，不复制
+     */
+    @NonNull
+    public List<E> asList() {
+        return new AbstractList<E>() {
+            @Override
+            public E get(int index) {
+                return PersistentVector.this.get(index);
+            }
+
+            @Override
+            public int size() {
+                return mSize;
+            }
+        };
+    }
+
+    @NonNull
+    @Override
+    public Iterator<E> iterator() {
+        return new Iterator<E>() {
+            private int mIndex;
+            private Object[] mChunk;
+
+            @Override
+            public boolean hasNext() {
+                return mIndex < mSize;
+            }
+
+            @Override
+            public E next() {
+                if (mIndex >= mSize) {
+                    throw new NoSuchElementException();
+                }
+                if ((mIndex & MASK) == 0 || mChunk == null) {
+                    mChunk = arrayFor(mIndex);
+                }
+                //noinspection unchecked
+                return (E) mChunk[mIndex++ & MASK];
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * 比较两个版本，把变化报告给 callback。两者共享的块（同一个数组）直接跳过
+     */
+    public static <E> void diff(@NonNull PersistentVector<E> oldVector,
+            @NonNull PersistentVector<E> newVector, @NonNull DiffCallback<E> callback) {
+        if (oldVector == newVector) {
+            return;
+        }
+        int common = Math.min(oldVector.mSize, newVector.mSize);
+        for (int base = 0; base < common; base += WIDTH) {
+            Object[] oldChunk = oldVector.arrayFor(base);
+            Object[] newChunk = newVector.arrayFor(base);
+            if (oldChunk == newChunk) {
+                continue;
+            }
+            int end = Math.min(WIDTH, common - base);
+            for (int i = 0; i < end; i++) {
+                if (oldChunk[i] != newChunk[i]) {
+                    //noinspection unchecked
+                    callback.onChanged(base + i, (E) oldChunk[i], (E) newChunk[i]);
+                }
+            }
+        }
+        for (int i = common; i < newVector.mSize; i++) {
+            callback.onInserted(i, newVector.get(i));
+        }
+        for (int i = oldVector.mSize - 1; i >= common; i--) {
+            callback.onRemoved(i, oldVector.get(i));
+        }
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= mSize) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + mSize);
+        }
+    }
+
+    private int tailOffset() {
+        return mSize < WIDTH ? 0 : ((mSize - 1) >>> BITS) << BITS;
+    }
+
+    private Object[] arrayFor(int index) {
+        if (index >= tailOffset()) {
+            return mTail;
+        }
+        Object[] node = mRoot;
+        for (int level = mShift; level > 0; level -= BITS) {
+            node = (Object[]) node[(index >>> level) & MASK];
+        }
+        return node;
+    }
+
+    private static Object[] doSet(int level, Object[] node, int index, Object item) {
+        Object[] copy = node.clone();
+        if (level == 0) {
+            copy[index & MASK] = item;
+        } else {
+            int child = (index >>> level) & MASK;
+            copy[child] = doSet(level - BITS, (Object[]) node[child], index, item);
+        }
+        return copy;
+    }
+
+    private Object[] pushTail(int level, Object[] parent, Object[] tail) {
+        int child = ((mSize - 1) >>> level) & MASK;
+        Object[] copy = parent.clone();
+        if (level == BITS) {
+            copy[child] = tail;
+        } else {
+            Object[] node = (Object[]) parent[child];
+            copy[child] = node != null
+                    ? pushTail(level - BITS, node, tail) : newPath(level - BITS, tail);
+        }
+        return copy;
+    }
+
+    private static Object[] newPath(int level, Object[] node) {
+        if (level == 0) {
+            return node;
+        }
+        Object[] path = new Object[WIDTH];
+        path[0] = newPath(level - BITS, node);
+        return path;
+    }
+
+    private Object[] popTail(int level, Object[] node) {
+        int child = ((mSize - 2) >>> level) & MASK;
+        if (level > BITS) {
+            Object[] newChild = popTail(level - BITS, (Object[]) node[child]);
+            if (newChild == null && child == 0) {
+                return null;
+            }
+            Object[] copy = node.clone();
+            copy[child] = newChild;
+            return copy;
+        }
+        if (child == 0) {
+            return null;
+        }
+        Object[] copy = node.clone();
+        copy[child] = null;
+        return copy;
+    }
+}
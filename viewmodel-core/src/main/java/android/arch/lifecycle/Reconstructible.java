@@ -0,0 +1,18 @@
+package android.arch.lifecycle;
+
+/**
+ * ViewModel 实现这个接口，表示它可以低成本地重新创建（数据可以从数据库、磁盘缓存等快速恢复）。
+ * <p>
+ * ViewModelStore 打开了 {@link ViewModelEvictionPolicy} 时，内存紧张时会优先回收这类 ViewModel
+ * （调用 onCleared 并移出 store），下次 {@link ViewModelProvider#get(Class)} 时再透明地重新创建。
+ * <p>
+ * 只有 owner 已经 stop 时才会回收，owner 应该在 onStart 中重新通过 ViewModelProvider 获取，
+ * 而不是一直使用字段中保存的实例。
+ */
+public interface Reconstructible {
+
+    /**
+     * @return 这个 ViewModel 大致占用的内存字节数，用于按大小加权的回收顺序；不清楚时返回 1
+     */
+    long getEstimatedSize();
+}
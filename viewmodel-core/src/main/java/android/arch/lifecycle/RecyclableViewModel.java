@@ -0,0 +1,24 @@
+package android.arch.lifecycle;
+
+import android.support.annotation.NonNull;
+
+/**
+ * 可以被 {@link ItemViewModelPool} 复用的 ViewModel，通常是列表中每一行的 ViewModel。
+ * <p>
+ * 复用时不会重新创建，也不会调用 onCleared：先 {@link #onRecycle()} 重置成刚创建时的状态，
+ * 再 {@link #onBind(String)} 绑定到新的 key。只有从池中真正移除时才会调用 onCleared。
+ * <p>
+ * onRecycle 之前 {@link ViewModel#getTaskScope()} 中的任务已经全部取消，之后拿到的是一个新的 scope。
+ */
+public interface RecyclableViewModel {
+
+    /**
+     * 绑定到 key（例如列表项的 id），在这里开始加载这一项的数据
+     */
+    void onBind(@NonNull String key);
+
+    /**
+     * 和当前的 key 解除绑定：取消这一项的加载，清空这一项的数据，但保留可以复用的对象
+     */
+    void onRecycle();
+}
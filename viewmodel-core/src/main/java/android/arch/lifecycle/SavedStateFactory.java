@@ -0,0 +1,23 @@
+package android.arch.lifecycle;
+
+import android.support.annotation.NonNull;
+
+import java.io.DataInput;
+import java.io.IOException;
+
+/**
+ * 能直接用保存的状态创建 ViewModel 的工厂，例如把状态作为构造参数，避免先创建一个空的 ViewModel 再恢复。
+ * <p>
+ * 没有保存的状态时仍然调用 {@link ViewModelProvider.Factory#create(Class)}。
+ */
+public interface SavedStateFactory extends ViewModelProvider.Factory {
+
+    /**
+     * 用保存的状态创建 modelClass 的新实例
+     *
+     * @param savedState 上一个进程中这个 ViewModel 的 {@link SavedStateViewModel#saveState} 写入的数据
+     */
+    @NonNull
+    <T extends ViewModel> T create(@NonNull Class<T> modelClass, @NonNull DataInput savedState)
+            throws IOException;
+}
@@ -0,0 +1,37 @@
+package android.arch.lifecycle;
+
+import android.support.annotation.NonNull;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * ViewModel 实现这个接口，表示它有需要在进程被杀后恢复的状态（例如列表位置、输入框内容、当前筛选条件）。
+ * <p>
+ * 保存时 {@link ViewModelStore#saveState()} 把所有这类 ViewModel 的状态写成一个紧凑的二进制快照，
+ * 进程重建后 {@link ViewModelStore#restoreState(byte[])} 取回快照，第一次通过 ViewModelProvider 获取
+ * 这个 ViewModel 时把它的那一段交给 {@link SavedStateFactory}，或者在创建后调用 {@link #restoreState}。
+ * <p>
+ * {@link #getStateVersion()} 没有变化的 ViewModel 保存时直接复用上一次的字节，不会再调用 {@link #saveState}。
+ * <p>
+ * 通过 ViewModelStores 获取的 store（HolderFragment、ViewModelStoreOwner、RetainedViewModelStores、
+ * 共享 scope）都会自动保存和恢复，自己创建的 ViewModelStore 需要自己调用这两个方法。
+ */
+public interface SavedStateViewModel {
+
+    /**
+     * @return 状态的版本号，状态每次改变时加一；和上一次保存时相同表示状态没有变化
+     */
+    int getStateVersion();
+
+    /**
+     * 把状态写入 out。在保存状态的线程（通常是主线程）上调用
+     */
+    void saveState(@NonNull DataOutput out) throws IOException;
+
+    /**
+     * 从 {@link #saveState} 写入的数据恢复状态。工厂是 {@link SavedStateFactory} 时不会调用
+     */
+    void restoreState(@NonNull DataInput in) throws IOException;
+}
@@ -1,5 +1,7 @@
 package android.arch.lifecycle;
 
+import android.support.annotation.NonNull;
+
 /**
  * ViewModel is a class that is responsible for preparing and managing the data for
  * an {@link android.app.Activity Activity} or a {@link android.support.v4.app.Fragment Fragment}.
@@ -78,6 +80,74 @@ package android.arch.lifecycle;
  * </>
  */
 public abstract class ViewModel {
+    // 不用 this 做锁，子类可能自己在 this 上同步
+    private final Object mTaskLock = new Object();
+    // 第一次调用 getTaskScope 时才创建，只在持有 mTaskLock 时修改
+    private volatile ViewModelTaskScope mTaskScope;
+    // 已经被清除，只在持有 mTaskLock 时访问
+    private boolean mTasksCancelled;
+
+    /**
+     * 返回这个 ViewModel 的后台任务 scope，第一次调用时创建。
+     * ViewModel 被清除时 scope 中没有结束的任务会被取消，不需要在 onCleared 中自己取消；
+     * 清除之后才第一次调用时返回的 scope 已经取消，提交的任务不会执行。
+     */
+    @NonNull
+    protected final ViewModelTaskScope getTaskScope() {
+        ViewModelTaskScope scope = mTaskScope;
+        if (scope == null) {
+            synchronized (mTaskLock) {
+                scope = mTaskScope;
+                if (scope == null) {
+                    scope = new ViewModelTaskScope();
+                    if (mTasksCancelled) {
+                        scope.cancel();
+                    }
+                    mTaskScope = scope;
+                }
+            }
+        }
+        return scope;
+    }
+
+    /**
+     * 取消后台任务；ViewModel 被清除时先于 onCleared 调用
+     */
+    final void cancelTasks() {
+        ViewModelTaskScope scope;
+        synchronized (mTaskLock) {
+            mTasksCancelled = true;
+            scope = mTaskScope;
+        }
+        if (scope != null) {
+            scope.cancel();
+        }
+    }
+
+    /**
+     * 取消后台任务并丢掉当前的 scope，之后 {@link #getTaskScope()} 返回一个新的 scope。
+     * 被 {@link ItemViewModelPool} 回收复用时调用
+     */
+    final void resetTasks() {
+        ViewModelTaskScope scope;
+        synchronized (mTaskLock) {
+            scope = mTaskScope;
+            mTaskScope = null;
+            mTasksCancelled = false;
+        }
+        if (scope != null) {
+            scope.cancel();
+        }
+    }
+
+    /**
+     * 清除 ViewModel：取消后台任务，再调用 {@link #onCleared()}
+     */
+    final void dispatchCleared() {
+        cancelTasks();
+        onCleared();
+    }
+
     /**
      * This method will be called when this ViewModel is no longer used and will be destroyed.
      * 当不再使用此 ViewModel 时，将调用此方法并将其销毁。
@@ -0,0 +1,106 @@
+package android.arch.lifecycle;
+
+import android.app.Application;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.lang.reflect.Constructor;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 反射创建 ViewModel 时使用的构造函数缓存。
+ * <p>
+ * 每个 class 只查找一次构造函数，之后屏幕旋转、返回栈重新进入等重复创建只是一次 newInstance 调用。
+ * 用 ConcurrentHashMap 而不是 ClassValue / MethodHandle，因为 minSdkVersion 15 上没有这两个 API。
+ * <p>
+ * 命中和未命中次数可以通过 {@link #getHitCount()} 和 {@link #getMissCount()} 查看。
+ */
+public final class ViewModelConstructorCache {
+
+    // 非 AndroidViewModel 的 class 在 sApplicationConstructors 中用这个标记，避免重复判断
+    private static final Object NOT_ANDROID_VIEW_MODEL = new Object();
+
+    private static final ConcurrentHashMap<Class<?>, Constructor<?>> sEmptyConstructors =
+            new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<Class<?>, Object> sApplicationConstructors =
+            new ConcurrentHashMap<>();
+
+    private static final AtomicLong sHitCount = new AtomicLong();
+    private static final AtomicLong sMissCount = new AtomicLong();
+
+    private ViewModelConstructorCache() {
+    }
+
+    /**
+     * 返回 modelClass 的 public 无参构造函数
+     */
+    @NonNull
+    static <T> Constructor<T> emptyConstructor(@NonNull Class<T> modelClass)
+            throws NoSuchMethodException {
+        Constructor<?> constructor = sEmptyConstructors.get(modelClass);
+        if (constructor != null) {
+            sHitCount.incrementAndGet();
+        } else {
+            sMissCount.incrementAndGet();
+            constructor = modelClass.getConstructor();
+            sEmptyConstructors.put(modelClass, constructor);
+        }
+        //noinspection unchecked
+        return (Constructor<T>) constructor;
+    }
+
+    /**
+     * 返回 AndroidViewModel 子类的 public (Application) 构造函数，
+     * modelClass 不是 AndroidViewModel 时返回 null。
+     * <p>
+     * 只有返回了构造函数时才计入命中 / 未命中：返回 null 时调用方接着用 {@link #emptyConstructor}，
+     * 由它计数，一次创建只计一次。
+     */
+    @Nullable
+    static <T> Constructor<T> applicationConstructor(@NonNull Class<T> modelClass)
+            throws NoSuchMethodException {
+        Object constructor = sApplicationConstructors.get(modelClass);
+        boolean hit = constructor != null;
+        if (!hit) {
+            if (AndroidViewModel.class.isAssignableFrom(modelClass)) {
+                constructor = modelClass.getConstructor(Application.class);
+            } else {
+                constructor = NOT_ANDROID_VIEW_MODEL;
+            }
+            sApplicationConstructors.put(modelClass, constructor);
+        }
+        if (constructor == NOT_ANDROID_VIEW_MODEL) {
+            return null;
+        }
+        if (hit) {
+            sHitCount.incrementAndGet();
+        } else {
+            sMissCount.incrementAndGet();
+        }
+        //noinspection unchecked
+        return (Constructor<T>) constructor;
+    }
+
+    /**
+     * 缓存命中次数
+     */
+    public static long getHitCount() {
+        return sHitCount.get();
+    }
+
+    /**
+     * 缓存未命中（需要反射查找构造函数）的次数
+     */
+    public static long getMissCount() {
+        return sMissCount.get();
+    }
+
+    /**
+     * 计数清零，缓存的构造函数保留
+     */
+    public static void resetStats() {
+        sHitCount.set(0);
+        sMissCount.set(0);
+    }
+}
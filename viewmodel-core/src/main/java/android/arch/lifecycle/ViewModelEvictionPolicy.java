@@ -0,0 +1,16 @@
+package android.arch.lifecycle;
+
+/**
+ * 内存紧张时回收 {@link Reconstructible} ViewModel 的顺序，通过
+ * {@link ViewModelStore#setEvictionPolicy(ViewModelEvictionPolicy)} 为 store 打开。
+ */
+public enum ViewModelEvictionPolicy {
+    /**
+     * 最久没有通过 ViewModelProvider 访问的先回收
+     */
+    LRU,
+    /**
+     * 按 大小 × 距上次访问的时间 从大到小回收，又大又久没用的先回收
+     */
+    SIZE_WEIGHTED
+}
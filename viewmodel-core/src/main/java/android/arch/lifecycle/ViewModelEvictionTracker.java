@@ -0,0 +1,114 @@
+package android.arch.lifecycle;
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 记录一个 ViewModelStore 中 {@link Reconstructible} ViewModel 的访问顺序，并选出内存紧张时要回收的 key。
+ * 只有打开了回收策略的 store 才有，其他 store 没有任何额外开销。
+ */
+final class ViewModelEvictionTracker {
+
+    // 全局逻辑时钟，每次访问加一
+    private static final AtomicLong sClock = new AtomicLong();
+
+    private final ViewModelEvictionPolicy mPolicy;
+    // key -> 最后一次访问时的时钟
+    private final ConcurrentHashMap<String, AtomicLong> mLastAccess = new ConcurrentHashMap<>();
+
+    ViewModelEvictionTracker(@NonNull ViewModelEvictionPolicy policy) {
+        mPolicy = policy;
+    }
+
+    void touch(@NonNull String key) {
+        AtomicLong lastAccess = mLastAccess.get(key);
+        if (lastAccess == null) {
+            lastAccess = new AtomicLong();
+            AtomicLong previous = mLastAccess.putIfAbsent(key, lastAccess);
+            if (previous != null) {
+                lastAccess = previous;
+            }
+        }
+        lastAccess.set(sClock.incrementAndGet());
+    }
+
+    void forget(@NonNull String key) {
+        mLastAccess.remove(key);
+    }
+
+    void forgetAll() {
+        mLastAccess.clear();
+    }
+
+    /**
+     * 从 keys / viewModels 中选出要回收的 key：按策略排序后依次回收，直到回收的大小达到总大小的 fraction
+     */
+    @NonNull
+    List<String> selectVictims(@NonNull List<String> keys, @NonNull List<ViewModel> viewModels,
+            float fraction) {
+        final long now = sClock.get();
+        List<Candidate> candidates = new ArrayList<>();
+        long totalSize = 0;
+        for (int i = 0; i < keys.size(); i++) {
+            ViewModel viewModel = viewModels.get(i);
+            if (!(viewModel instanceof Reconstructible)) {
+                continue;
+            }
+            long size = Math.max(1, ((Reconstructible) viewModel).getEstimatedSize());
+            AtomicLong lastAccess = mLastAccess.get(keys.get(i));
+            candidates.add(new Candidate(keys.get(i), size,
+                    lastAccess == null ? 0 : lastAccess.get()));
+            totalSize += size;
+        }
+        if (candidates.isEmpty()) {
+            return Collections.emptyList();
+        }
+        if (mPolicy == ViewModelEvictionPolicy.LRU) {
+            Collections.sort(candidates, new Comparator<Candidate>() {
+                @Override
+                public int compare(Candidate a, Candidate b) {
+                    return a.mLastAccess < b.mLastAccess ? -1
+                            : (a.mLastAccess == b.mLastAccess ? 0 : 1);
+                }
+            });
+        } else {
+            Collections.sort(candidates, new Comparator<Candidate>() {
+                @Override
+                public int compare(Candidate a, Candidate b) {
+                    double weightA = (double) a.mSize * (now - a.mLastAccess + 1);
+                    double weightB = (double) b.mSize * (now - b.mLastAccess + 1);
+                    return Double.compare(weightB, weightA);
+                }
+            });
+        }
+        long target = fraction >= 1f ? totalSize : (long) Math.ceil(totalSize * fraction);
+        List<String> victims = new ArrayList<>();
+        long freed = 0;
+        for (Candidate candidate : candidates) {
+            if (freed >= target) {
+                break;
+            }
+            victims.add(candidate.mKey);
+            freed += candidate.mSize;
+        }
+        return victims;
+    }
+
+    private static final class Candidate {
+        final String mKey;
+        final long mSize;
+        final long mLastAccess;
+
+        Candidate(String key, long size, long lastAccess) {
+            mKey = key;
+            mSize = size;
+            mLastAccess = lastAccess;
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package android.arch.lifecycle;
+
+import android.app.Application;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.RestrictTo;
+
+/**
+ * 编译期生成的 ViewModel 工厂索引，由 viewmodel-compiler 注解处理器为每个模块生成一个实现类。
+ * 应用模块的实现类名固定为 {@value GeneratedViewModelFactories#ROOT_INDEX}，由它调用库模块的实现。
+ * <p>
+ * 对索引中的类直接调用构造函数，不走反射；不认识的类返回 null，由调用方回退到反射创建。
+ *
+ * @hide
+ */
+@RestrictTo(RestrictTo.Scope.LIBRARY_GROUP)
+public interface ViewModelFactoryIndex {
+
+    /**
+     * @param modelClass  需要创建的 ViewModel 的 class
+     * @param application 不为 null 时 AndroidViewModel 使用 Application 构造函数创建
+     * @return 新创建的 ViewModel，索引中没有该类时返回 null
+     */
+    @Nullable
+    <T extends ViewModel> T create(@NonNull Class<T> modelClass, @Nullable Application application);
+}
@@ -0,0 +1,101 @@
+package android.arch.lifecycle;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.HashMap;
+
+/**
+ * 按 ViewModel 的 class 登记创建函数的组合工厂，代替一长串 if / else 的 Factory 实现和反射创建。
+ * <p>
+ * 登记表在 {@link Builder#build()} 时固定下来，之后不可修改；每次 create 只是一次 HashMap 查找
+ * （Class 的 hashCode 是 identity hash）。没有登记的 class 交给 fallback 工厂，例如
+ * {@link ViewModelProvider.AndroidViewModelFactory}。
+ * <pre>
+ * static final ViewModelFactoryRegistry FACTORY = new ViewModelFactoryRegistry.Builder()
+ *         .register(UserModel.class, new ViewModelFactoryRegistry.Creator&lt;UserModel&gt;() {
+ *             {@literal @}Override
+ *             public UserModel create() {
+ *                 return new UserModel(userRepository);
+ *             }
+ *         })
+ *         .fallback(ViewModelProvider.AndroidViewModelFactory.getInstance(application))
+ *         .build();
+ * </pre>
+ */
+public final class ViewModelFactoryRegistry implements ViewModelProvider.Factory {
+
+    /**
+     * 创建一种 ViewModel
+     */
+    public interface Creator<T extends ViewModel> {
+        @NonNull
+        T create();
+    }
+
+    private final HashMap<Class<?>, Creator<?>> mCreators;
+    private final ViewModelProvider.Factory mFallback;
+
+    ViewModelFactoryRegistry(HashMap<Class<?>, Creator<?>> creators,
+            @Nullable ViewModelProvider.Factory fallback) {
+        mCreators = creators;
+        mFallback = fallback;
+    }
+
+    @NonNull
+    @Override
+    public <T extends ViewModel> T create(@NonNull Class<T> modelClass) {
+        Creator<?> creator = mCreators.get(modelClass);
+        if (creator != null) {
+            //noinspection unchecked
+            return (T) creator.create();
+        }
+        if (mFallback != null) {
+            return mFallback.create(modelClass);
+        }
+        throw new IllegalArgumentException("No creator registered for " + modelClass);
+    }
+
+    /**
+     * modelClass 是否登记了创建函数（不包括 fallback）
+     */
+    public boolean isRegistered(@NonNull Class<? extends ViewModel> modelClass) {
+        return mCreators.containsKey(modelClass);
+    }
+
+    /**
+     * 构建 {@link ViewModelFactoryRegistry}，通常在 Application.onCreate 或者依赖注入的模块中构建一次
+     */
+    public static final class Builder {
+        private final HashMap<Class<?>, Creator<?>> mCreators = new HashMap<>();
+        private ViewModelProvider.Factory mFallback;
+
+        /**
+         * 登记 modelClass 的创建函数，同一个 class 只能登记一次
+         */
+        @NonNull
+        public <T extends ViewModel> Builder register(@NonNull Class<T> modelClass,
+                @NonNull Creator<? extends T> creator) {
+            if (mCreators.containsKey(modelClass)) {
+                throw new IllegalArgumentException(modelClass + " is already registered");
+            }
+            mCreators.put(modelClass, creator);
+            return this;
+        }
+
+        /**
+         * 没有登记的 class 交给 fallback 创建；不设置时抛出 IllegalArgumentException
+         */
+        @NonNull
+        public Builder fallback(@Nullable ViewModelProvider.Factory fallback) {
+            mFallback = fallback;
+            return this;
+        }
+
+        @NonNull
+        public ViewModelFactoryRegistry build() {
+            // 复制一份，之后 Builder 的修改不影响已经构建的登记表
+            return new ViewModelFactoryRegistry(new HashMap<>(mCreators), mFallback);
+        }
+    }
+}
@@ -0,0 +1,356 @@
+package android.arch.lifecycle;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ViewModel 泄漏检测，默认关闭，建议只在 debug 包中打开：
+ * <pre>
+ * ViewModelLeakWatcher.setListener(new ViewModelLeakWatcher.Listener() { ... });
+ * </pre>
+ * 打开后 {@link ViewModelStore#clear()} 清除的每个 ViewModel 在 onCleared 之后都用弱引用 + ReferenceQueue
+ * 跟踪（交给 {@link ViewModelTeardown} 后台销毁的，等后台 onCleared 执行完才开始），
+ * 过了 {@link #setWatchDelay(long) 观察时间} 并且 GC 之后仍然没有被回收的（例如被静态回调持有）通过
+ * {@link Listener#onRetained} 报告，附带 owner 的类名和 key。
+ * <p>
+ * 检测线程上还会检查 ViewModel 的字段，持有 Activity、Fragment、View 或者 Application 以外的 Context 的
+ * 通过 {@link Listener#onForbiddenReference} 报告；AndroidViewModel 持有的 Application 是允许的。
+ */
+public final class ViewModelLeakWatcher {
+
+    /**
+     * 检测结果回调，在检测线程上调用
+     */
+    public interface Listener {
+        /**
+         * ViewModel 在 onCleared 之后，GC 也没有回收它
+         */
+        void onRetained(@NonNull Report report);
+
+        /**
+         * ViewModel 被 clear 时持有不应该持有的 Activity / Fragment / View / Context
+         */
+        void onForbiddenReference(@NonNull Report report);
+    }
+
+    /**
+     * 默认观察时间：clear 之后 5 秒还没有被回收才触发 GC 检查
+     */
+    public static final long DEFAULT_WATCH_DELAY_MILLIS = 5000;
+
+    // ViewModel 不应该持有的类型；按类层级从下往上找，先遇到 Application 的不算
+    private static final String APPLICATION = "android.app.Application";
+    private static final HashSet<String> FORBIDDEN_TYPES = new HashSet<>();
+
+    static {
+        FORBIDDEN_TYPES.add("android.app.Activity");
+        FORBIDDEN_TYPES.add("android.app.Fragment");
+        FORBIDDEN_TYPES.add("android.support.v4.app.Fragment");
+        FORBIDDEN_TYPES.add("android.view.View");
+        FORBIDDEN_TYPES.add("android.content.Context");
+    }
+
+    private static final ConcurrentHashMap<Class<?>, Boolean> sForbiddenCache =
+            new ConcurrentHashMap<>();
+
+    private static volatile Listener sListener;
+    private static volatile long sWatchDelayNanos =
+            TimeUnit.MILLISECONDS.toNanos(DEFAULT_WATCH_DELAY_MILLIS);
+
+    private static final ReferenceQueue<ViewModel> sQueue = new ReferenceQueue<>();
+    // 还没有被回收的 ViewModel，只在持有 sWatched 锁时访问
+    private static final HashSet<WatchedReference> sWatched = new HashSet<>();
+
+    private ViewModelLeakWatcher() {
+    }
+
+    /**
+     * 注册回调并打开检测，传 null 关闭并丢弃正在观察的 ViewModel
+     */
+    public static void setListener(@Nullable Listener listener) {
+        sListener = listener;
+        if (listener == null) {
+            synchronized (sWatched) {
+                sWatched.clear();
+            }
+        }
+    }
+
+    public static boolean isEnabled() {
+        return sListener != null;
+    }
+
+    /**
+     * clear 之后经过 millis 毫秒还没有被回收的 ViewModel 才会被检查
+     */
+    public static void setWatchDelay(long millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("delay < 0: " + millis);
+        }
+        sWatchDelayNanos = TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    /**
+     * 立即检查所有过了观察时间的 ViewModel：需要时触发一次 GC，仍然没有被回收的报告给回调。
+     * 平时由检测线程自动调用，也可以在测试中直接调用。
+     *
+     * @return 这次报告的没有被回收的 ViewModel 数量
+     */
+    public static int check() {
+        removeCollected();
+        long now = System.nanoTime();
+        long delay = sWatchDelayNanos;
+        boolean due = false;
+        synchronized (sWatched) {
+            for (WatchedReference reference : sWatched) {
+                if (now - reference.mClearedAt >= delay) {
+                    due = true;
+                    break;
+                }
+            }
+        }
+        if (!due) {
+            return 0;
+        }
+        gc();
+        removeCollected();
+        List<WatchedReference> retained = new ArrayList<>();
+        synchronized (sWatched) {
+            for (WatchedReference reference : new ArrayList<>(sWatched)) {
+                if (now - reference.mClearedAt >= delay) {
+                    sWatched.remove(reference);
+                    retained.add(reference);
+                }
+            }
+        }
+        Listener listener = sListener;
+        if (listener != null) {
+            for (WatchedReference reference : retained) {
+                listener.onRetained(reference.mReport);
+            }
+        }
+        return retained.size();
+    }
+
+    /**
+     * store 被 clear 后、这些 ViewModel 的 onCleared 都执行完之后调用，开始观察它们。
+     * 检查字段要用反射，放在检测线程上做，不占用 clear 的线程（通常是主线程）。
+     * 开始观察后 viewModels 会被清空，调用方不能再使用它
+     */
+    static void watch(@Nullable final String ownerName, @NonNull final List<String> keys,
+            @NonNull final List<ViewModel> viewModels) {
+        final Listener listener = sListener;
+        if (listener == null || viewModels.isEmpty()) {
+            return;
+        }
+        final long clearedAt = System.nanoTime();
+        ExecutorHolder.EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                startWatching(listener, ownerName, keys, viewModels, clearedAt);
+            }
+        });
+    }
+
+    private static void startWatching(Listener listener, String ownerName, List<String> keys,
+            List<ViewModel> viewModels, long clearedAt) {
+        List<Report> forbidden = new ArrayList<>();
+        List<WatchedReference> references = new ArrayList<>(viewModels.size());
+        for (int i = 0; i < viewModels.size(); i++) {
+            ViewModel viewModel = viewModels.get(i);
+            Report report = new Report(ownerName, keys.get(i), viewModel.getClass(),
+                    forbiddenFields(viewModel));
+            if (!report.mForbiddenFields.isEmpty()) {
+                forbidden.add(report);
+            }
+            references.add(new WatchedReference(viewModel, report, clearedAt));
+        }
+        // 调用方（例如后台销毁的线程）可能还拿着这个列表，清空后只剩弱引用
+        viewModels.clear();
+        synchronized (sWatched) {
+            if (sListener == null) {
+                // 检测已经关闭
+                return;
+            }
+            sWatched.addAll(references);
+        }
+        for (Report report : forbidden) {
+            listener.onForbiddenReference(report);
+        }
+        ExecutorHolder.EXECUTOR.schedule(new Runnable() {
+            @Override
+            public void run() {
+                check();
+            }
+        }, Math.max(0, sWatchDelayNanos - (System.nanoTime() - clearedAt)), TimeUnit.NANOSECONDS);
+    }
+
+    private static void removeCollected() {
+        Reference<? extends ViewModel> reference;
+        while ((reference = sQueue.poll()) != null) {
+            synchronized (sWatched) {
+                sWatched.remove(reference);
+            }
+        }
+    }
+
+    private static void gc() {
+        // System.gc() 在 Android 上不一定真的执行，Runtime.gc() 更可靠
+        Runtime.getRuntime().gc();
+        try {
+            // 等待弱引用进入队列
+            Thread.sleep(100);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        System.runFinalization();
+    }
+
+    /**
+     * viewModel 中持有不允许类型的字段，格式为 "声明类.字段名: 值的类型"
+     */
+    private static List<String> forbiddenFields(ViewModel viewModel) {
+        List<String> fields = null;
+        for (Class<?> type = viewModel.getClass(); type != null && type != ViewModel.class;
+                type = type.getSuperclass()) {
+            for (Field field : type.getDeclaredFields()) {
+                if (Modifier.isStatic(field.getModifiers()) || field.getType().isPrimitive()) {
+                    continue;
+                }
+                Object value;
+                try {
+                    field.setAccessible(true);
+                    value = field.get(viewModel);
+                } catch (Exception e) {
+                    // 拿不到的字段跳过
+                    continue;
+                }
+                if (value != null && isForbidden(value.getClass())) {
+                    if (fields == null) {
+                        fields = new ArrayList<>();
+                    }
+                    fields.add(type.getName() + "." + field.getName() + ": "
+                            + value.getClass().getName());
+                }
+            }
+        }
+        return fields == null ? Collections.<String>emptyList() : fields;
+    }
+
+    private static boolean isForbidden(Class<?> valueClass) {
+        Boolean cached = sForbiddenCache.get(valueClass);
+        if (cached != null) {
+            return cached;
+        }
+        boolean forbidden = false;
+        for (Class<?> type = valueClass; type != null; type = type.getSuperclass()) {
+            String name = type.getName();
+            if (APPLICATION.equals(name)) {
+                break;
+            }
+            if (FORBIDDEN_TYPES.contains(name)) {
+                forbidden = true;
+                break;
+            }
+        }
+        sForbiddenCache.put(valueClass, forbidden);
+        return forbidden;
+    }
+
+    /**
+     * 一个被清除的 ViewModel 的检测结果
+     */
+    public static final class Report {
+        final String mOwnerName;
+        final String mKey;
+        final Class<? extends ViewModel> mModelClass;
+        final List<String> mForbiddenFields;
+
+        Report(String ownerName, String key, Class<? extends ViewModel> modelClass,
+                List<String> forbiddenFields) {
+            mOwnerName = ownerName;
+            mKey = key;
+            mModelClass = modelClass;
+            mForbiddenFields = forbiddenFields;
+        }
+
+        /**
+         * @return ViewModel 所在 store 的 owner，通常是 Activity / Fragment 的类名；不知道时返回 null
+         */
+        @Nullable
+        public String getOwnerName() {
+            return mOwnerName;
+        }
+
+        @NonNull
+        public String getKey() {
+            return mKey;
+        }
+
+        @NonNull
+        public Class<? extends ViewModel> getModelClass() {
+            return mModelClass;
+        }
+
+        /**
+         * @return clear 时持有 Activity / Fragment / View / Context 的字段，没有时为空
+         */
+        @NonNull
+        public List<String> getForbiddenFields() {
+            return mForbiddenFields;
+        }
+
+        @Override
+        public String toString() {
+            return mModelClass.getName() + " (owner=" + mOwnerName + ", key=" + mKey
+                    + (mForbiddenFields.isEmpty() ? "" : ", holds " + mForbiddenFields) + ")";
+        }
+    }
+
+    private static final class WatchedReference extends WeakReference<ViewModel> {
+        final Report mReport;
+        final long mClearedAt;
+
+        WatchedReference(ViewModel viewModel, Report report, long clearedAt) {
+            super(viewModel, sQueue);
+            mReport = report;
+            mClearedAt = clearedAt;
+        }
+    }
+
+    // 检测线程，第一次用到时才创建；空闲 10 秒后线程退出
+    private static final class ExecutorHolder {
+        static final ScheduledExecutorService EXECUTOR;
+
+        static {
+            ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1,
+                    new ThreadFactory() {
+                        @Override
+                        public Thread newThread(@NonNull Runnable runnable) {
+                            Thread thread = new Thread(runnable, "ViewModelLeakWatcher");
+                            thread.setDaemon(true);
+                            thread.setPriority(Thread.MIN_PRIORITY);
+                            return thread;
+                        }
+                    });
+            executor.setKeepAliveTime(10, TimeUnit.SECONDS);
+            executor.allowCoreThreadTimeOut(true);
+            EXECUTOR = executor;
+        }
+    }
+}
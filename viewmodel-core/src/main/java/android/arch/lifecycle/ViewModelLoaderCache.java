@@ -0,0 +1,395 @@
+package android.arch.lifecycle;
+
+import android.support.annotation.AnyThread;
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 挂在 ViewModelStore 上的加载缓存，同一个 store（例如同一个 Activity）里的多个 ViewModel 共享：
+ * <ul>
+ * <li>同一个 key 同时只有一次加载，加载期间的其他请求等待同一次加载的结果（single-flight）。
+ * 每个调用方拿到自己的 Future，取消只影响自己，所有调用方都取消了才取消加载；</li>
+ * <li>加载成功的结果按 key 缓存，超过有效期或者超过数量上限（最近最少使用的先淘汰）后重新加载，
+ * 加载失败不缓存；</li>
+ * <li>store 被 clear 时丢弃所有结果并取消还在进行的加载。</li>
+ * </ul>
+ * <pre>
+ * Future&lt;User&gt; user = ViewModelLoaderCache.of(store).load("user:" + id, new Callable&lt;User&gt;() {
+ *     {@literal @}Override
+ *     public User call() throws Exception {
+ *         return api.getUser(id);
+ *     }
+ * }, executor);
+ * </pre>
+ * 同一个 key 必须总是对应同一种类型的结果。
+ */
+public final class ViewModelLoaderCache {
+
+    /**
+     * 默认最多缓存 64 个结果
+     */
+    public static final int DEFAULT_MAX_SIZE = 64;
+
+    /**
+     * 默认结果有效期 60 秒
+     */
+    public static final long DEFAULT_TTL_MILLIS = 60 * 1000;
+
+    // 以下字段只在持有 this 锁时访问
+    private final HashMap<String, LoadTask<?>> mInFlight = new HashMap<>();
+    // accessOrder 为 true，迭代顺序就是最近最少使用的顺序
+    private final LinkedHashMap<String, Cached> mCache = new LinkedHashMap<>(16, 0.75f, true);
+    private int mMaxSize = DEFAULT_MAX_SIZE;
+    private long mTtlNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_TTL_MILLIS);
+    private boolean mReleased;
+
+    private long mHitCount;
+    private long mDedupCount;
+    private long mLoadCount;
+    private long mEvictionCount;
+
+    ViewModelLoaderCache() {
+    }
+
+    /**
+     * 返回 store 的加载缓存，第一次调用时创建
+     */
+    @NonNull
+    @AnyThread
+    public static ViewModelLoaderCache of(@NonNull ViewModelStore store) {
+        return store.loaderCache();
+    }
+
+    /**
+     * 修改数量上限和有效期，已经缓存的结果超出的部分立即淘汰
+     */
+    @AnyThread
+    public synchronized void configure(int maxSize, long ttlMillis) {
+        if (maxSize < 0 || ttlMillis < 0) {
+            throw new IllegalArgumentException("maxSize and ttlMillis must be >= 0");
+        }
+        mMaxSize = maxSize;
+        mTtlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        trimLocked();
+    }
+
+    /**
+     * 获取 key 的结果：有未过期的缓存时直接返回，正在加载时等待同一次加载，
+     * 否则在 executor 上执行 loader
+     *
+     * @return 这个调用方自己的 Future，cancel 只取消自己的等待；所有等待这次加载的调用方都取消了，
+     * 加载本身才被取消
+     */
+    @NonNull
+    @AnyThread
+    public <V> Future<V> load(@NonNull String key, @NonNull Callable<V> loader,
+            @NonNull Executor executor) {
+        Lookup<V> lookup = lookup(key, loader);
+        if (lookup.mStarted) {
+            executor.execute(lookup.mTask);
+        }
+        return lookup.mSubscription;
+    }
+
+    /**
+     * 同 {@link #load}，但需要加载时在当前线程执行 loader；同一个 key 正在加载时等待那次加载的结果
+     */
+    @AnyThread
+    public <V> V get(@NonNull String key, @NonNull Callable<V> loader)
+            throws ExecutionException, InterruptedException {
+        Lookup<V> lookup = lookup(key, loader);
+        try {
+            if (lookup.mStarted) {
+                lookup.mTask.run();
+            }
+            return lookup.mSubscription.get();
+        } finally {
+            // 正常返回时已经完成，cancel 不起作用；等待被中断时退订，没有其他调用方时取消加载
+            lookup.mSubscription.cancel(true);
+        }
+    }
+
+    /**
+     * 丢弃 key 的缓存结果，正在进行的加载不受影响
+     */
+    @AnyThread
+    public synchronized void invalidate(@NonNull String key) {
+        mCache.remove(key);
+    }
+
+    private <V> Lookup<V> lookup(String key, Callable<V> loader) {
+        synchronized (this) {
+            Cached cached = mCache.get(key);
+            if (cached != null) {
+                if (System.nanoTime() - cached.mLoadedAt < mTtlNanos) {
+                    mHitCount++;
+                    //noinspection unchecked
+                    LoadTask<V> completed = LoadTask.completed((V) cached.mValue);
+                    return new Lookup<>(completed, completed.subscribe(), false);
+                }
+                mCache.remove(key);
+            }
+            LoadTask<?> inFlight = mInFlight.get(key);
+            if (inFlight != null) {
+                mDedupCount++;
+                //noinspection unchecked
+                LoadTask<V> task = (LoadTask<V>) inFlight;
+                return new Lookup<>(task, task.subscribe(), false);
+            }
+            LoadTask<V> task = new LoadTask<>(this, key, loader);
+            if (!mReleased) {
+                // store 已经 clear 的话照常加载，但不再登记和缓存
+                mInFlight.put(key, task);
+            }
+            mLoadCount++;
+            return new Lookup<>(task, task.subscribe(), true);
+        }
+    }
+
+    /**
+     * subscription 被取消：它是这次加载的最后一个调用方时取消加载，之后的请求重新加载
+     */
+    private void unsubscribe(LoadTask<?> task, Subscription<?> subscription,
+            boolean mayInterruptIfRunning) {
+        boolean last;
+        synchronized (this) {
+            // 和 lookup 在同一个锁下，从 mInFlight 移除之后不会再有新的调用方加入
+            last = task.removeSubscription(subscription);
+            if (last && mInFlight.get(task.mKey) == task) {
+                mInFlight.remove(task.mKey);
+            }
+        }
+        if (last) {
+            task.cancel(mayInterruptIfRunning);
+        }
+    }
+
+    private void onLoaded(LoadTask<?> task) {
+        Object value;
+        try {
+            value = task.get();
+        } catch (Exception e) {
+            // 失败或者取消的加载不缓存
+            value = task;
+        }
+        synchronized (this) {
+            if (mInFlight.get(task.mKey) != task) {
+                return;
+            }
+            mInFlight.remove(task.mKey);
+            if (value != task && !mReleased) {
+                mCache.put(task.mKey, new Cached(value, System.nanoTime()));
+                trimLocked();
+            }
+        }
+    }
+
+    private void trimLocked() {
+        Iterator<Cached> iterator = mCache.values().iterator();
+        while (mCache.size() > mMaxSize && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+            mEvictionCount++;
+        }
+    }
+
+    /**
+     * store 被 clear 时调用：丢弃所有结果，取消还在进行的加载
+     */
+    void release() {
+        List<LoadTask<?>> inFlight;
+        synchronized (this) {
+            mReleased = true;
+            mCache.clear();
+            inFlight = new ArrayList<>(mInFlight.values());
+            mInFlight.clear();
+        }
+        for (LoadTask<?> task : inFlight) {
+            task.cancel(true);
+        }
+    }
+
+    /**
+     * 命中未过期缓存的次数
+     */
+    public synchronized long getHitCount() {
+        return mHitCount;
+    }
+
+    /**
+     * 复用正在进行的加载、没有重复加载的次数
+     */
+    public synchronized long getDedupCount() {
+        return mDedupCount;
+    }
+
+    /**
+     * 实际执行 loader 的次数
+     */
+    public synchronized long getLoadCount() {
+        return mLoadCount;
+    }
+
+    /**
+     * 因为超过数量上限被淘汰的结果数
+     */
+    public synchronized long getEvictionCount() {
+        return mEvictionCount;
+    }
+
+    /**
+     * 当前缓存的结果数
+     */
+    public synchronized int size() {
+        return mCache.size();
+    }
+
+    private static final class Cached {
+        final Object mValue;
+        final long mLoadedAt;
+
+        Cached(Object value, long loadedAt) {
+            mValue = value;
+            mLoadedAt = loadedAt;
+        }
+    }
+
+    private static final class Lookup<V> {
+        final LoadTask<V> mTask;
+        final Subscription<V> mSubscription;
+        // 是否需要调用方执行 mTask
+        final boolean mStarted;
+
+        Lookup(LoadTask<V> task, Subscription<V> subscription, boolean started) {
+            mTask = task;
+            mSubscription = subscription;
+            mStarted = started;
+        }
+    }
+
+    private static final class LoadTask<V> extends FutureTask<V> {
+        final ViewModelLoaderCache mCache;
+        final String mKey;
+        // 还在等待结果的调用方，只在持有 this 锁时访问
+        private final ArrayList<Subscription<V>> mSubscriptions = new ArrayList<>(1);
+        private boolean mNotified;
+
+        LoadTask(ViewModelLoaderCache cache, String key, Callable<V> loader) {
+            super(loader);
+            mCache = cache;
+            mKey = key;
+        }
+
+        static <V> LoadTask<V> completed(final V value) {
+            LoadTask<V> task = new LoadTask<>(null, null, new Callable<V>() {
+                @Override
+                public V call() {
+                    return value;
+                }
+            });
+            task.run();
+            return task;
+        }
+
+        Subscription<V> subscribe() {
+            Subscription<V> subscription = new Subscription<>(this);
+            boolean done;
+            synchronized (this) {
+                done = mNotified;
+                if (!done) {
+                    mSubscriptions.add(subscription);
+                }
+            }
+            if (done) {
+                subscription.complete();
+            }
+            return subscription;
+        }
+
+        /**
+         * @return 移除后没有其他调用方，并且加载还没有结束
+         */
+        synchronized boolean removeSubscription(Subscription<?> subscription) {
+            //noinspection SuspiciousMethodCalls
+            mSubscriptions.remove(subscription);
+            return mSubscriptions.isEmpty() && !mNotified;
+        }
+
+        @Override
+        protected void done() {
+            if (mCache != null) {
+                mCache.onLoaded(this);
+            }
+            List<Subscription<V>> subscriptions;
+            synchronized (this) {
+                mNotified = true;
+                subscriptions = new ArrayList<>(mSubscriptions);
+                mSubscriptions.clear();
+            }
+            for (Subscription<V> subscription : subscriptions) {
+                subscription.complete();
+            }
+        }
+    }
+
+    /**
+     * 一个调用方的 Future：加载结束时得到同样的结果，取消时只退订自己
+     */
+    private static final class Subscription<V> extends FutureTask<V> {
+        // 结果只通过 complete() 设置，FutureTask 要求的任务什么都不做
+        private static final Runnable NO_OP = new Runnable() {
+            @Override
+            public void run() {
+            }
+        };
+
+        private final LoadTask<V> mTask;
+
+        Subscription(LoadTask<V> task) {
+            super(NO_OP, null);
+            mTask = task;
+        }
+
+        @Override
+        public void run() {
+            // 结果来自 mTask，不执行自己的任务
+        }
+
+        void complete() {
+            try {
+                set(mTask.get());
+            } catch (ExecutionException e) {
+                setException(e.getCause());
+            } catch (CancellationException e) {
+                super.cancel(false);
+            } catch (InterruptedException e) {
+                // mTask 已经结束，get 不会阻塞
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            if (!super.cancel(false)) {
+                return false;
+            }
+            if (mTask.mCache != null) {
+                mTask.mCache.unsubscribe(mTask, this, mayInterruptIfRunning);
+            }
+            return true;
+        }
+    }
+}
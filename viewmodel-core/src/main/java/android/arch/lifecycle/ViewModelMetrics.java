@@ -0,0 +1,26 @@
+package android.arch.lifecycle;
+
+import android.support.annotation.Nullable;
+
+/**
+ * 注册 {@link ViewModelMetricsListener}。没有注册时各个埋点只是一次 volatile 读和 null 判断，不计时。
+ */
+public final class ViewModelMetrics {
+
+    private static volatile ViewModelMetricsListener sListener;
+
+    private ViewModelMetrics() {
+    }
+
+    /**
+     * 注册监控回调，传 null 关闭
+     */
+    public static void setListener(@Nullable ViewModelMetricsListener listener) {
+        sListener = listener;
+    }
+
+    @Nullable
+    static ViewModelMetricsListener listener() {
+        return sListener;
+    }
+}
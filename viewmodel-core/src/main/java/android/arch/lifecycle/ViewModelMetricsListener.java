@@ -0,0 +1,43 @@
+package android.arch.lifecycle;
+
+import android.support.annotation.NonNull;
+
+/**
+ * ViewModel 生命周期的监控回调，通过 {@link ViewModelMetrics#setListener(ViewModelMetricsListener)} 注册。
+ * <p>
+ * 回调在触发事件的线程上同步调用，实现必须足够轻量并且线程安全。
+ * 默认实现见 {@link InMemoryViewModelMetrics}。
+ */
+public interface ViewModelMetricsListener {
+
+    /**
+     * 通过 ViewModelProvider 获取 ViewModel 时 ViewModelStore 的查找结果
+     *
+     * @param hit store 中已经有这个 ViewModel
+     */
+    void onLookup(@NonNull String key, boolean hit);
+
+    /**
+     * Factory.create 创建了一个新的 ViewModel
+     */
+    void onCreated(@NonNull Class<? extends ViewModel> modelClass, long durationNanos);
+
+    /**
+     * 有 ViewModel 放入 store 之后 store 中的 ViewModel 数量
+     */
+    void onStoreSize(@NonNull ViewModelStore store, int size);
+
+    /**
+     * ViewModelStore.clear 完成，durationNanos 是在调用线程上执行 onCleared 的耗时
+     * （不包含交给后台执行的 {@link BackgroundClearable}）
+     */
+    void onStoreCleared(int clearedCount, long durationNanos);
+
+    /**
+     * HolderFragmentManager 为 Activity / Fragment 查找 HolderFragment
+     *
+     * @param cached  命中了查找缓存
+     * @param created 新创建了 HolderFragment
+     */
+    void onHolderFragmentLookup(boolean cached, boolean created, long durationNanos);
+}
@@ -0,0 +1,342 @@
+package android.arch.lifecycle;
+
+import android.support.annotation.AnyThread;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 提前创建 ViewModel：导航目标确定后就在线程池上开始创建目标页面的 ViewModel（连同它的仓库和首次查询），
+ * 不用等到目标 Activity / Fragment 的 onCreate。
+ * <p>
+ * 每次启动用 {@link #newToken()} 生成一个 token，提前创建的结果按 token 登记；token 通过 Intent extra
+ * 或者 Fragment arguments（key 为 {@link #EXTRA_TOKEN}）交给这一次启动的页面，页面第一次拿到自己的
+ * ViewModelStore 时由这个 store 接管。同一个页面 class 已经存在的其他实例不会拿走它们：
+ * <ul>
+ * <li>每个提前创建的 ViewModel 只会交给一个 store 一次；</li>
+ * <li>接管时还没创建完，store 上对这个 key 的 get 会等待它完成，不会再创建一个；</li>
+ * <li>调用 {@link Handle#abandon()} 放弃后，已经创建好（或者之后才创建好）的 ViewModel 会被调用 onCleared；</li>
+ * <li>超过 {@link #setExpiry 有效期} 还没被接管（例如导航被取消）的会被自动放弃。</li>
+ * </ul>
+ * <pre>
+ * String token = ViewModelPrefetcher.newToken();
+ * ViewModelPrefetcher.prefetch(token, UserModel.class, factory, executor);
+ * startActivity(new Intent(this, UserActivity.class)
+ *         .putExtra(ViewModelPrefetcher.EXTRA_TOKEN, token));
+ * </pre>
+ */
+public final class ViewModelPrefetcher {
+
+    /**
+     * 目标页面的 Intent extra / Fragment argument 中 token 的 key
+     */
+    public static final String EXTRA_TOKEN = "android.arch.lifecycle.ViewModelPrefetcher.TOKEN";
+
+    private static final long DEFAULT_EXPIRY_MILLIS = 10000;
+
+    // token -> (key -> Handle)
+    private static final HashMap<String, HashMap<String, Handle<?>>> sPrefetches =
+            new HashMap<>();
+
+    // 登记中的提前创建数量，为 0 时 adoptInto 不需要加锁
+    private static volatile int sCount;
+
+    private static volatile long sExpiryMillis = DEFAULT_EXPIRY_MILLIS;
+
+    private ViewModelPrefetcher() {
+    }
+
+    /**
+     * 为一次启动生成 token
+     */
+    @NonNull
+    @AnyThread
+    public static String newToken() {
+        return UUID.randomUUID().toString();
+    }
+
+    /**
+     * 提前创建的结果在多长时间内没有被接管就自动放弃，默认 10 秒。只影响之后的提前创建。
+     */
+    @AnyThread
+    public static void setExpiry(long duration, @NonNull TimeUnit unit) {
+        if (duration <= 0) {
+            throw new IllegalArgumentException("duration must be positive: " + duration);
+        }
+        sExpiryMillis = unit.toMillis(duration);
+    }
+
+    /**
+     * 用默认 key 为 token 对应的启动提前创建 modelClass
+     */
+    @NonNull
+    @AnyThread
+    public static <T extends ViewModel> Handle<T> prefetch(@NonNull String token,
+            @NonNull Class<T> modelClass, @NonNull ViewModelProvider.Factory factory,
+            @NonNull Executor executor) {
+        return prefetch(token, ViewModelProvider.defaultKey(modelClass), modelClass,
+                factory, executor);
+    }
+
+    /**
+     * 为 token 对应的启动提前创建 key 对应的 modelClass。同一个 token 和 key 已经在提前创建时
+     * 直接返回已有的 Handle，不会创建第二个。
+     */
+    @NonNull
+    @AnyThread
+    public static <T extends ViewModel> Handle<T> prefetch(@NonNull String token,
+            @NonNull String key, @NonNull Class<T> modelClass,
+            @NonNull ViewModelProvider.Factory factory, @NonNull Executor executor) {
+        Handle<T> handle;
+        synchronized (sPrefetches) {
+            HashMap<String, Handle<?>> handles = sPrefetches.get(token);
+            if (handles == null) {
+                handles = new HashMap<>();
+                sPrefetches.put(token, handles);
+            }
+            Handle<?> existing = handles.get(key);
+            if (existing != null) {
+                if (existing.mModelClass != modelClass) {
+                    throw new IllegalStateException("Key " + key + " is already prefetched as "
+                            + existing.mModelClass);
+                }
+                //noinspection unchecked
+                return (Handle<T>) existing;
+            }
+            handle = new Handle<>(token, key, modelClass, factory);
+            handles.put(key, handle);
+            sCount++;
+        }
+        ExpiryHolder.EXECUTOR.schedule(handle.mExpiry, sExpiryMillis, TimeUnit.MILLISECONDS);
+        executor.execute(handle);
+        return handle;
+    }
+
+    /**
+     * 放弃 token 对应的所有还没有被接管的提前创建
+     */
+    @AnyThread
+    public static void abandon(@NonNull String token) {
+        List<Handle<?>> handles;
+        synchronized (sPrefetches) {
+            HashMap<String, Handle<?>> map = sPrefetches.get(token);
+            if (map == null) {
+                return;
+            }
+            handles = new ArrayList<>(map.values());
+        }
+        for (Handle<?> handle : handles) {
+            handle.abandon();
+        }
+    }
+
+    /**
+     * 页面的 ViewModelStore 第一次被获取时调用，把为 token 对应的启动提前创建的 ViewModel 交给 store
+     *
+     * @param token 页面 Intent extra / arguments 中的 {@link #EXTRA_TOKEN}，没有时什么也不做
+     */
+    static void adoptInto(@Nullable String token, @NonNull ViewModelStore store) {
+        if (token == null || sCount == 0) {
+            return;
+        }
+        HashMap<String, Handle<?>> handles;
+        synchronized (sPrefetches) {
+            handles = sPrefetches.remove(token);
+            if (handles == null) {
+                return;
+            }
+            sCount -= handles.size();
+        }
+        for (Handle<?> handle : handles.values()) {
+            handle.adopt(store);
+        }
+    }
+
+    private static void remove(Handle<?> handle) {
+        synchronized (sPrefetches) {
+            HashMap<String, Handle<?>> handles = sPrefetches.get(handle.mToken);
+            if (handles != null && handles.get(handle.mKey) == handle) {
+                handles.remove(handle.mKey);
+                sCount--;
+                if (handles.isEmpty()) {
+                    sPrefetches.remove(handle.mToken);
+                }
+            }
+        }
+    }
+
+    /**
+     * 一次提前创建
+     */
+    public static final class Handle<T extends ViewModel> implements Runnable {
+        final String mToken;
+        final String mKey;
+        final Class<T> mModelClass;
+        private final ViewModelProvider.Factory mFactory;
+
+        // 有效期到了还没被接管就放弃
+        final Runnable mExpiry = new Runnable() {
+            @Override
+            public void run() {
+                abandon();
+            }
+        };
+
+        // 以下字段只在持有 this 锁时访问
+        private boolean mStarted;
+        private boolean mFinished;
+        private boolean mAbandoned;
+        // 还没被接管时创建好的 ViewModel
+        private T mModel;
+        // 创建完成前被接管时，创建结果交给这个 store
+        private ViewModelStore mStore;
+        private ViewModelStore.PendingCreation mPending;
+
+        Handle(String token, String key, Class<T> modelClass,
+                ViewModelProvider.Factory factory) {
+            mToken = token;
+            mKey = key;
+            mModelClass = modelClass;
+            mFactory = factory;
+        }
+
+        @Override
+        public void run() {
+            synchronized (this) {
+                if (mStarted || mAbandoned) {
+                    return;
+                }
+                mStarted = true;
+            }
+            T created = null;
+            try {
+                created = mFactory.create(mModelClass);
+            } finally {
+                ViewModelStore store;
+                ViewModelStore.PendingCreation pending;
+                boolean abandoned;
+                synchronized (this) {
+                    mFinished = true;
+                    store = mStore;
+                    pending = mPending;
+                    abandoned = mAbandoned;
+                    if (store == null && !abandoned) {
+                        mModel = created;
+                    }
+                }
+                if (store != null) {
+                    // 已经被接管，交给 store；失败时 store 上等待的 get 会自己重新创建
+                    store.completePending(mKey, pending, created);
+                } else if (abandoned) {
+                    if (created != null) {
+                        created.dispatchCleared();
+                    }
+                } else if (created == null) {
+                    // 创建失败，不再登记，目标页面照常自己创建
+                    remove(this);
+                }
+            }
+        }
+
+        void adopt(ViewModelStore store) {
+            T model = null;
+            ViewModelStore.PendingCreation pending;
+            synchronized (this) {
+                if (mAbandoned || mStore != null) {
+                    return;
+                }
+                pending = store.adoptPending(mKey);
+                if (pending == null) {
+                    // store 里已经有这个 key 了，提前创建的结果用不上
+                    mAbandoned = true;
+                    model = mModel;
+                    mModel = null;
+                } else if (mFinished) {
+                    model = mModel;
+                    mModel = null;
+                    mStore = store;
+                } else {
+                    mStore = store;
+                    mPending = pending;
+                    return;
+                }
+            }
+            if (pending != null) {
+                store.completePending(mKey, pending, model);
+            } else if (model != null) {
+                model.dispatchCleared();
+            }
+        }
+
+        /**
+         * 放弃这次提前创建。已经创建好的 ViewModel 立即调用 onCleared，正在创建的在创建完成后调用。
+         *
+         * @return 已经被目标页面接管时返回 false
+         */
+        @AnyThread
+        public boolean abandon() {
+            T model;
+            synchronized (this) {
+                if (mStore != null) {
+                    return false;
+                }
+                if (mAbandoned) {
+                    return true;
+                }
+                mAbandoned = true;
+                model = mModel;
+                mModel = null;
+            }
+            remove(this);
+            if (model != null) {
+                model.dispatchCleared();
+            }
+            return true;
+        }
+
+        /**
+         * 是否已经创建完成（成功或失败）
+         */
+        @AnyThread
+        public synchronized boolean isDone() {
+            return mFinished;
+        }
+
+        /**
+         * 是否已经被目标页面的 ViewModelStore 接管
+         */
+        @AnyThread
+        public synchronized boolean isAdopted() {
+            return mStore != null;
+        }
+    }
+
+    // 有效期检查的线程，第一次用到时才创建；空闲 10 秒后线程退出
+    private static final class ExpiryHolder {
+        static final ScheduledExecutorService EXECUTOR;
+
+        static {
+            ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1,
+                    new ThreadFactory() {
+                        @Override
+                        public Thread newThread(@NonNull Runnable runnable) {
+                            Thread thread = new Thread(runnable, "ViewModelPrefetchExpiry");
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+            executor.setKeepAliveTime(10, TimeUnit.SECONDS);
+            executor.allowCoreThreadTimeOut(true);
+            EXECUTOR = executor;
+        }
+    }
+}
@@ -0,0 +1,270 @@
+package android.arch.lifecycle;
+
+import android.app.Application;
+import android.support.annotation.AnyThread;
+import android.support.annotation.NonNull;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * ViewModelProvider 是每次获取创建 ViewModel 的时候都会创建一个新的
+ * <p>
+ * get 可以在任意线程调用：同一个 key 同时只会有一个线程在创建，其他线程等待这次创建的结果。
+ * 获取 ViewModelStore 的 {@link ViewModelStores}（HolderFragment 依赖 FragmentManager）仍然只能在主线程调用，
+ * 在主线程拿到 store 后可以交给后台线程提前创建耗时的 ViewModel：
+ * <pre>
+ * final ViewModelStore store = ViewModelStores.of(activity);
+ * executor.execute(new Runnable() {
+ *     public void run() {
+ *         new ViewModelProvider(store, factory).get(UserModel.class);
+ *     }
+ * });
+ * </pre>
+ */
+@SuppressWarnings("WeakerAccess")
+public class ViewModelProvider {
+
+    private static final String DEFAULT_KEY = "android.arch.lifecycle.ViewModelProvider.DefaultKey";
+
+    // class -> 默认 key 的缓存，避免每次 get(Class) 都 getCanonicalName() 并拼接字符串
+    private static final ConcurrentHashMap<Class<?>, String> sDefaultKeys =
+            new ConcurrentHashMap<>();
+
+    /**
+     * Factory 接口的实现负责实例化 ViewModels。
+     */
+    public interface Factory {
+        /**
+         * 创建给定 @code Class 类的新实例
+         *
+         * @param modelClass 新实例的 class
+         * @param <T>        ViewModel 类型的泛型参数.
+         * @return 返回新创建的 ViewModel
+         */
+        @NonNull
+        <T extends ViewModel> T create(@NonNull Class<T> modelClass);
+    }
+
+    private final Factory mFactory;
+    private final ViewModelStore mViewModelStore;
+
+    /**
+     * @param owner   ViewModelStore 用于保存 ViewModels
+     * @param factory Factory 用于创建新的 ViewModels
+     */
+    public ViewModelProvider(@NonNull ViewModelStoreOwner owner, @NonNull Factory factory) {
+        this(owner.getViewModelStore(), factory);
+    }
+
+    public ViewModelProvider(@NonNull ViewModelStore store, @NonNull Factory factory) {
+        mFactory = factory;
+        this.mViewModelStore = store;
+    }
+
+    @NonNull
+    final Factory getFactory() {
+        return mFactory;
+    }
+
+    @NonNull
+    final ViewModelStore getViewModelStore() {
+        return mViewModelStore;
+    }
+
+    /**
+     * 创建一个ViewModelProvider，使用 ViewModelProvider 内部的全局单例 AndroidViewModelFactory 来反射创建 ViewModel,并把创建的ViewModel存入传入的ViewModelStore中！
+     * @param modelClass ViewModel 的子类的 class
+     */
+    @NonNull
+    @AnyThread
+    public <T extends ViewModel> T get(@NonNull Class<T> modelClass) {
+        // ViewModelStore 存储 ViewModel key 的获取：  DEFAULT_KEY 和 类名组成一个key值
+        // key 按 class 缓存，缓存命中时整个 get 不分配任何对象
+        return get(defaultKey(modelClass), modelClass);
+    }
+
+    /**
+     * 返回 modelClass 的默认 key，每个 class 只拼接一次字符串。
+     * 同一个 class 总是返回同一个 String 实例，ViewModelStore 查找时 equals 直接走引用比较。
+     */
+    @NonNull
+    static String defaultKey(@NonNull Class<?> modelClass) {
+        String key = sDefaultKeys.get(modelClass);
+        if (key == null) {
+            String canonicalName = modelClass.getCanonicalName();
+            if (canonicalName == null) {
+                throw new IllegalArgumentException("Local and anonymous classes can not be ViewModels");
+            }
+            key = DEFAULT_KEY + ":" + canonicalName;
+            String previous = sDefaultKeys.putIfAbsent(modelClass, key);
+            if (previous != null) {
+                key = previous;
+            }
+        }
+        return key;
+    }
+
+
+    @NonNull
+    @AnyThread
+    public <T extends ViewModel> T get(@NonNull String key, @NonNull Class<T> modelClass) {
+        // 先从缓存中获取，缓存有就直接返回，否则就用 Factory 从新创建并存储到 ViewModelStore 中。
+        // 同一个 key 正在后台创建（getAsync / ViewModelPrefetcher）时等待它的结果，不会重复创建
+        return mViewModelStore.getOrCreate(key, modelClass, mFactory);
+    }
+
+    /**
+     * 返回默认 key 对应的延迟句柄，第一次调用 {@link LazyViewModel#get()} 时才创建 ViewModel
+     */
+    @NonNull
+    public <T extends ViewModel> LazyViewModel<T> lazy(@NonNull Class<T> modelClass) {
+        return new LazyViewModel<>(this, defaultKey(modelClass), modelClass);
+    }
+
+    /**
+     * 返回 key 对应的延迟句柄，第一次调用 {@link LazyViewModel#get()} 时才创建 ViewModel
+     */
+    @NonNull
+    public <T extends ViewModel> LazyViewModel<T> lazy(@NonNull String key,
+            @NonNull Class<T> modelClass) {
+        return new LazyViewModel<>(this, key, modelClass);
+    }
+
+    /**
+     * 在 executor 上异步获取或创建默认 key 对应的 ViewModel
+     */
+    @NonNull
+    @AnyThread
+    public <T extends ViewModel> Future<T> getAsync(@NonNull Class<T> modelClass,
+            @NonNull Executor executor) {
+        return getAsync(defaultKey(modelClass), modelClass, executor);
+    }
+
+    /**
+     * 在 executor 上异步获取或创建 key 对应的 ViewModel，创建好后放入 ViewModelStore。
+     * <p>
+     * 创建期间在其他线程（包括主线程）对同一个 key 调用 get 会等待这次创建的结果，不会创建第二个。
+     */
+    @NonNull
+    @AnyThread
+    public <T extends ViewModel> Future<T> getAsync(@NonNull final String key,
+            @NonNull final Class<T> modelClass, @NonNull Executor executor) {
+        FutureTask<T> task = new FutureTask<>(new Callable<T>() {
+            @Override
+            public T call() {
+                return mViewModelStore.getOrCreate(key, modelClass, mFactory);
+            }
+        });
+        executor.execute(task);
+        return task;
+    }
+
+    /**
+     * Simple factory, which calls empty constructor on the give class.
+     * 简单工厂，它在给定类上调用空构造函数
+     * <p>
+     * 优先使用注解处理器生成的工厂直接 new，索引中没有的类才反射创建
+     */
+    public static class NewInstanceFactory implements Factory {
+
+        @NonNull
+        @Override
+        public <T extends ViewModel> T create(@NonNull Class<T> modelClass) {
+            T viewModel = GeneratedViewModelFactories.create(modelClass, null);
+            if (viewModel != null) {
+                return viewModel;
+            }
+            return newInstance(modelClass);
+        }
+
+        /**
+         * 反射调用无参构造函数，不再查询生成的工厂
+         */
+        @NonNull
+        static <T extends ViewModel> T newInstance(@NonNull Class<T> modelClass) {
+            // noinspection TryWithIdenticalCatches
+            try {
+                // 构造函数只查找一次，之后直接从缓存中取
+                return ViewModelConstructorCache.emptyConstructor(modelClass).newInstance();
+            } catch (NoSuchMethodException e) {
+                throw new RuntimeException("Cannot create an instance of " + modelClass, e);
+            } catch (InstantiationException e) {
+                throw new RuntimeException("Cannot create an instance of " + modelClass, e);
+            } catch (IllegalAccessException e) {
+                throw new RuntimeException("Cannot create an instance of " + modelClass, e);
+            } catch (InvocationTargetException e) {
+                throw new RuntimeException("Cannot create an instance of " + modelClass, e);
+            }
+        }
+    }
+
+    /**
+     * AndroidViewModelFactory 在正常情况下是全局单例只有一个，只是一个反射创建对象的工具类
+     */
+    public static class AndroidViewModelFactory extends ViewModelProvider.NewInstanceFactory {
+
+        // 单例实现，volatile + 双重检查，后台线程也可以安全获取
+        private static volatile AndroidViewModelFactory sInstance;
+
+        // 获得 AndroidViewModelFactory 单例
+        @NonNull
+        public static AndroidViewModelFactory getInstance(@NonNull Application application) {
+            AndroidViewModelFactory instance = sInstance;
+            if (instance == null) {
+                synchronized (AndroidViewModelFactory.class) {
+                    instance = sInstance;
+                    if (instance == null) {
+                        instance = new AndroidViewModelFactory(application);
+                        sInstance = instance;
+                    }
+                }
+            }
+            return instance;
+        }
+
+        private Application mApplication;
+
+        // 构造方式是 public 的，是可以 new 一个 AndroidViewModelFactory 出来的
+        public AndroidViewModelFactory(@NonNull Application application) {
+            mApplication = application;
+        }
+
+        @NonNull
+        @Override
+        public <T extends ViewModel> T create(@NonNull Class<T> modelClass) {
+            // 编译期生成的工厂直接调用构造函数
+            T viewModel = GeneratedViewModelFactories.create(modelClass, mApplication);
+            if (viewModel != null) {
+                return viewModel;
+            }
+            Constructor<T> constructor;
+            try {
+                // 是否是 AndroidViewModel 以及它的构造函数每个 class 只判断、查找一次
+                constructor = ViewModelConstructorCache.applicationConstructor(modelClass);
+            } catch (NoSuchMethodException e) {
+                throw new RuntimeException("Cannot create an instance of " + modelClass, e);
+            }
+            if (constructor == null) {
+                // 上面已经查询过生成的工厂，这里直接反射，不调用 super.create 再查一次
+                return newInstance(modelClass);
+            }
+            // noinspection TryWithIdenticalCatches  不带识别标记的检查尝试
+            try {
+                // 创建ViewModel的关键地方，根据给出的Class反射创建需要的ViewModel
+                return constructor.newInstance(mApplication);
+            } catch (IllegalAccessException e) {
+                throw new RuntimeException("Cannot create an instance of " + modelClass, e);
+            } catch (InstantiationException e) {
+                throw new RuntimeException("Cannot create an instance of " + modelClass, e);
+            } catch (InvocationTargetException e) {
+                throw new RuntimeException("Cannot create an instance of " + modelClass, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,295 @@
+package android.arch.lifecycle;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+
+/**
+ * 一个 ViewModelStore 的保存状态：{@link SavedStateViewModel} 的状态编码成的二进制快照，以及进程重建后
+ * 还没有被取走的状态。
+ * <p>
+ * 快照格式：格式版本(byte) + 数量(int) + 数量 × [key(UTF) + 类型(byte) + 内容]，
+ * 内容是 长度(int) + 状态字节，或者落盘的状态（{@link ViewModelStateSpill}）的 文件名(UTF) + 长度(int)。
+ * 每个 ViewModel 的字节和整个快照都会缓存，状态版本号没有变化的 ViewModel 不会重新编码，
+ * 所有 ViewModel 都没有变化时直接返回上一次的快照。
+ */
+final class ViewModelSavedState {
+
+    // 快照格式版本，格式变化时加一，其他版本的快照直接丢弃
+    private static final byte FORMAT_VERSION = 2;
+
+    private static final byte INLINE = 0;
+    private static final byte SPILLED = 1;
+
+    // 上一个进程保存、还没有被取走的状态：key -> 状态
+    private final HashMap<String, Entry> mRestored = new HashMap<>();
+
+    // 上一次保存的状态：key -> 状态，以及整个快照
+    private HashMap<String, Entry> mSaved = new HashMap<>();
+    private byte[] mSnapshot;
+
+    /**
+     * 读入上一个进程保存的快照
+     *
+     * @return 快照格式错误时返回 false，这时整个快照被丢弃，所有 ViewModel 都重新创建
+     */
+    synchronized boolean restore(@NonNull byte[] snapshot) {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(snapshot));
+        HashMap<String, Entry> entries = new HashMap<>();
+        try {
+            if (in.readByte() != FORMAT_VERSION) {
+                return true;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String key = in.readUTF();
+                if (in.readByte() == SPILLED) {
+                    String file = in.readUTF();
+                    entries.put(key, new Entry(null, 0, null, file, in.readInt()));
+                } else {
+                    int length = in.readInt();
+                    if (length < 0 || length > in.available()) {
+                        return false;
+                    }
+                    byte[] state = new byte[length];
+                    in.readFully(state);
+                    entries.put(key, new Entry(null, 0, state, null, state.length));
+                }
+            }
+        } catch (IOException e) {
+            return false;
+        }
+        // 进程启动时的清理不能删掉这些文件
+        ViewModelStateSpill.reference(spilledFiles(entries.values(), null));
+        // 现在就在后台读落盘的状态，取的时候通常已经读完
+        for (Entry entry : entries.values()) {
+            if (entry.mFile != null) {
+                entry.mPrefetch = ViewModelStateSpill.prefetch(entry.mFile, entry.mLength);
+            }
+        }
+        mRestored.putAll(entries);
+        mSaved = new HashMap<>(entries);
+        mSnapshot = snapshot;
+        return true;
+    }
+
+    /**
+     * 取走 key 的保存状态，每个 key 只能取一次
+     *
+     * @return 状态，没有保存的状态或者落盘的文件已经不可用时返回 null
+     */
+    @Nullable
+    DataInput take(@NonNull String key) {
+        Entry entry;
+        boolean referenced;
+        synchronized (this) {
+            entry = mRestored.remove(key);
+            if (entry == null) {
+                return null;
+            }
+            referenced = mSaved.get(key) == entry;
+        }
+        if (entry.mState != null) {
+            return input(entry.mState);
+        }
+        // 恢复时已经开始读；被回收后留下的状态这时才开始读
+        Future<DataInput> prefetch = entry.mPrefetch != null ? entry.mPrefetch
+                : ViewModelStateSpill.prefetch(entry.mFile, entry.mLength);
+        // 这个 Entry 还留在 mSaved 中，不再引用读到的映射
+        entry.mPrefetch = null;
+        DataInput input = ViewModelStateSpill.await(prefetch);
+        if (!referenced) {
+            // 没有被上一次的快照引用，读完就可以删掉；映射在文件删除后仍然有效
+            ViewModelStateSpill.delete(Collections.singletonList(entry.mFile));
+        }
+        return input;
+    }
+
+    /**
+     * {@link SavedStateViewModel} 被移出 store（例如内存紧张时回收）但之后可能被重新创建，先把它的状态留下来
+     */
+    void retain(@NonNull String key, @NonNull ViewModel viewModel) {
+        // 不引用 ViewModel 本身，被回收的 ViewModel 不会因为留下的状态而无法被 GC
+        Entry entry = encode(key, viewModel, false);
+        synchronized (this) {
+            mRestored.put(key, entry);
+        }
+    }
+
+    /**
+     * 保存 store 中所有 {@link SavedStateViewModel} 的状态，以及还没有被取走的恢复状态
+     *
+     * @return 快照，没有需要保存的状态时返回 null
+     */
+    @Nullable
+    byte[] save(@NonNull List<String> keys, @NonNull List<ViewModel> viewModels) {
+        // 这个进程第一次保存时清理之前的进程留下的文件
+        ViewModelStateSpill.sweepOnce();
+        HashMap<String, Entry> last;
+        synchronized (this) {
+            last = mSaved;
+        }
+        HashMap<String, Entry> saved = new HashMap<>();
+        boolean changed = false;
+        for (int i = 0; i < keys.size(); i++) {
+            ViewModel viewModel = viewModels.get(i);
+            if (!(viewModel instanceof SavedStateViewModel)) {
+                continue;
+            }
+            String key = keys.get(i);
+            Entry entry = last.get(key);
+            if (entry == null || !entry.isFor(viewModel)
+                    || entry.mVersion != ((SavedStateViewModel) viewModel).getStateVersion()) {
+                // 只有状态变化了的 ViewModel 才重新编码
+                entry = encode(key, viewModel, true);
+                changed = true;
+            }
+            saved.put(key, entry);
+        }
+        List<String> obsolete;
+        synchronized (this) {
+            for (Map.Entry<String, Entry> restored : mRestored.entrySet()) {
+                if (!saved.containsKey(restored.getKey())) {
+                    saved.put(restored.getKey(), restored.getValue());
+                    changed |= last.get(restored.getKey()) != restored.getValue();
+                }
+            }
+            // 没有新编码的状态时 saved 中的 key 都来自 last，数量相同就是同一批 key
+            if (!changed && saved.size() == last.size() && mSnapshot != null) {
+                return mSnapshot;
+            }
+            obsolete = spilledFiles(last.values(), saved);
+            mSaved = saved;
+            mSnapshot = saved.isEmpty() ? null : write(saved);
+        }
+        // 新快照不再引用的文件，排在新文件的写入之后删除
+        ViewModelStateSpill.delete(obsolete);
+        return mSnapshot;
+    }
+
+    /**
+     * store 被 clear，owner 不会再重建，删除所有落盘的状态
+     */
+    void discard() {
+        List<String> files;
+        synchronized (this) {
+            files = spilledFiles(mSaved.values(), null);
+            files.addAll(spilledFiles(mRestored.values(), mSaved));
+            mSaved = new HashMap<>();
+            mRestored.clear();
+            mSnapshot = null;
+        }
+        ViewModelStateSpill.delete(files);
+    }
+
+    /**
+     * entries 中落盘的、没有被 excluded 中同一个 Entry 引用的文件
+     */
+    private static List<String> spilledFiles(Iterable<Entry> entries,
+            @Nullable Map<String, Entry> excluded) {
+        List<String> files = new ArrayList<>();
+        for (Entry entry : entries) {
+            if (entry.mFile != null
+                    && (excluded == null || !excluded.containsValue(entry))) {
+                files.add(entry.mFile);
+            }
+        }
+        return files;
+    }
+
+    /**
+     * @param track 是否记住 viewModel（弱引用），下次保存时用来判断是不是同一个 ViewModel
+     */
+    private static Entry encode(String key, ViewModel viewModel, boolean track) {
+        SavedStateViewModel stateful = (SavedStateViewModel) viewModel;
+        // 先取版本号：编码期间状态又发生变化的话，下次保存会再编码一次
+        int version = stateful.getStateVersion();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            stateful.saveState(out);
+            out.flush();
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot save state of ViewModel for key " + key, e);
+        }
+        byte[] state = bytes.toByteArray();
+        ViewModel tracked = track ? viewModel : null;
+        if (ViewModelStateSpill.shouldSpill(state.length)) {
+            // 大状态在后台写文件，快照里只放文件名
+            return new Entry(tracked, version, null, ViewModelStateSpill.spill(state),
+                    state.length);
+        }
+        return new Entry(tracked, version, state, null, state.length);
+    }
+
+    private static byte[] write(HashMap<String, Entry> entries) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeByte(FORMAT_VERSION);
+            out.writeInt(entries.size());
+            for (Map.Entry<String, Entry> mapEntry : entries.entrySet()) {
+                Entry entry = mapEntry.getValue();
+                out.writeUTF(mapEntry.getKey());
+                if (entry.mFile != null) {
+                    out.writeByte(SPILLED);
+                    out.writeUTF(entry.mFile);
+                    out.writeInt(entry.mLength);
+                } else {
+                    out.writeByte(INLINE);
+                    out.writeInt(entry.mLength);
+                    out.write(entry.mState);
+                }
+            }
+            out.flush();
+        } catch (IOException e) {
+            // ByteArrayOutputStream 不会抛出 IOException
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    @NonNull
+    static DataInput input(@NonNull byte[] state) {
+        return new DataInputStream(new ByteArrayInputStream(state));
+    }
+
+    /**
+     * 一个 ViewModel 编码后的状态：mState 和 mFile 只有一个不为 null。
+     * 只用弱引用记住编码的是哪个 ViewModel，来自上一个进程的快照和被回收的 ViewModel 不记
+     */
+    private static final class Entry {
+        private final WeakReference<ViewModel> mViewModel;
+        final int mVersion;
+        final byte[] mState;
+        final String mFile;
+        final int mLength;
+        // 来自快照的落盘状态在 restore 时开始的读取
+        Future<DataInput> mPrefetch;
+
+        Entry(ViewModel viewModel, int version, byte[] state, String file, int length) {
+            mViewModel = viewModel == null ? null : new WeakReference<>(viewModel);
+            mVersion = version;
+            mState = state;
+            mFile = file;
+            mLength = length;
+        }
+
+        boolean isFor(ViewModel viewModel) {
+            return mViewModel != null && mViewModel.get() == viewModel;
+        }
+    }
+}
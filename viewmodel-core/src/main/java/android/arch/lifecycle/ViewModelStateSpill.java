@@ -0,0 +1,464 @@
+package android.arch.lifecycle;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 大状态的落盘：{@link SavedStateViewModel} 编码后的状态超过阈值时不放进 {@link ViewModelStore#saveState()}
+ * 的快照（也就不会进入 Bundle），而是在后台线程写到应用私有目录下的一个文件，快照中只记录文件名和长度。
+ * <p>
+ * 进程重建后恢复快照时就在后台把文件映射到内存（mmap），不需要把整个状态复制成 byte[]；
+ * 第一次获取这个 ViewModel 时只等待已经开始的读取，不在主线程上访问磁盘。
+ * <ul>
+ * <li>文件先写到临时文件再改名，读取时长度不对或者文件不存在（例如写完之前进程就被杀了）就当作没有保存的状态；</li>
+ * <li>不再被快照引用的文件和 store 被 clear 后它的文件，在同一个后台线程上按顺序删除；</li>
+ * <li>进程被杀时还没来得及删除的文件，在每个进程第一次保存状态时清理一次：这个进程中没有用到、
+ * 并且超过 {@link #setMaxAge 保留时间} 没有修改的文件，以及写了一半的临时文件。</li>
+ * </ul>
+ * 通过 ViewModelStores 获取 store 时默认打开，目录是 {@code getFilesDir()/viewmodel-state}。
+ */
+public final class ViewModelStateSpill {
+
+    /**
+     * 默认阈值：超过 16KB 的状态落盘。Binder 事务缓冲区整个进程共享，只有 1MB
+     */
+    public static final int DEFAULT_THRESHOLD = 16 * 1024;
+
+    /**
+     * 默认保留时间：一天。返回栈中的页面在进程重建后可能过很久才恢复，这期间它们的文件不能删
+     */
+    public static final long DEFAULT_MAX_AGE_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private static volatile boolean sEnabled = true;
+    // 目录可能要在后台线程上才能确定，见 setDirectory(Callable)
+    private static volatile FutureTask<File> sDirectory;
+    private static volatile int sThreshold = DEFAULT_THRESHOLD;
+    private static volatile long sMaxAgeMillis = DEFAULT_MAX_AGE_MILLIS;
+    private static volatile Executor sExecutor;
+
+    // 已经交给后台线程、还没写完的文件：文件名 -> 内容。同一个进程中在写完之前读取时直接用内存中的内容
+    private static final HashMap<String, byte[]> sPendingWrites = new HashMap<>();
+
+    // 这个进程中写入或者从快照中读到、还没有删除的文件，只在持有 sReferenced 锁时访问
+    private static final HashSet<String> sReferenced = new HashSet<>();
+    private static boolean sSwept;
+
+    private ViewModelStateSpill() {
+    }
+
+    /**
+     * 打开或关闭落盘，关闭后所有状态都放在快照中
+     */
+    public static void setEnabled(boolean enabled) {
+        sEnabled = enabled;
+    }
+
+    public static boolean isEnabled() {
+        return sEnabled;
+    }
+
+    /**
+     * 指定存放状态文件的目录，必须是应用私有目录
+     */
+    public static void setDirectory(@Nullable File directory) {
+        if (directory == null) {
+            sDirectory = null;
+            return;
+        }
+        FutureTask<File> task = new FutureTask<>(new FixedDirectory(directory));
+        task.run();
+        sDirectory = task;
+    }
+
+    /**
+     * 同 {@link #setDirectory(File)}，目录在写文件的后台线程上才计算，
+     * 适合第一次调用时会访问磁盘的 Context.getFilesDir()
+     */
+    public static void setDirectory(@NonNull Callable<File> directory) {
+        FutureTask<File> task = new FutureTask<>(directory);
+        sDirectory = task;
+        executor().execute(task);
+    }
+
+    /**
+     * @return 存放状态文件的目录；目录还在后台计算时等它算完
+     */
+    @Nullable
+    public static File getDirectory() {
+        return directory(sDirectory);
+    }
+
+    /**
+     * 是否指定了目录，不会等待后台计算
+     */
+    public static boolean hasDirectory() {
+        return sDirectory != null;
+    }
+
+    /**
+     * 进程启动时清理的文件至少要 millis 毫秒没有修改过
+     */
+    public static void setMaxAge(long millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("max age < 0: " + millis);
+        }
+        sMaxAgeMillis = millis;
+    }
+
+    /**
+     * 编码后超过 bytes 字节的状态落盘
+     */
+    public static void setThreshold(int bytes) {
+        if (bytes < 0) {
+            throw new IllegalArgumentException("threshold < 0: " + bytes);
+        }
+        sThreshold = bytes;
+    }
+
+    /**
+     * 指定写文件和删文件的 Executor，必须按提交顺序依次执行；传 null 恢复成默认的单线程线程池
+     */
+    public static void setExecutor(@Nullable Executor executor) {
+        sExecutor = executor;
+    }
+
+    /**
+     * 大小为 length 的状态是否需要落盘
+     */
+    static boolean shouldSpill(int length) {
+        return sEnabled && sDirectory != null && length > sThreshold;
+    }
+
+    /**
+     * 快照中引用了 names，进程启动时的清理不会删除它们
+     */
+    static void reference(@NonNull Collection<String> names) {
+        if (names.isEmpty()) {
+            return;
+        }
+        synchronized (sReferenced) {
+            sReferenced.addAll(names);
+        }
+    }
+
+    /**
+     * 在后台把 state 写到一个新文件
+     *
+     * @return 文件名，写在快照中
+     */
+    @NonNull
+    static String spill(@NonNull final byte[] state) {
+        final FutureTask<File> directory = sDirectory;
+        final String name = UUID.randomUUID().toString();
+        synchronized (sPendingWrites) {
+            sPendingWrites.put(name, state);
+        }
+        synchronized (sReferenced) {
+            sReferenced.add(name);
+        }
+        executor().execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    write(directory(directory), name, state);
+                } finally {
+                    synchronized (sPendingWrites) {
+                        sPendingWrites.remove(name);
+                    }
+                }
+            }
+        });
+        return name;
+    }
+
+    /**
+     * 在后台读取 {@link #spill} 写的文件。确定目录、检查长度和映射文件都不在调用线程上，
+     * 也不在写文件的线程上排在还没写完的文件后面
+     *
+     * @return 读取结果，用 {@link #await} 取；文件不存在或者不完整时结果为 null
+     */
+    @NonNull
+    static Future<DataInput> prefetch(@NonNull final String name, final int length) {
+        FutureTask<DataInput> task = new FutureTask<>(new Callable<DataInput>() {
+            @Override
+            public DataInput call() {
+                return read(name, length);
+            }
+        });
+        ReadExecutorHolder.EXECUTOR.execute(task);
+        return task;
+    }
+
+    /**
+     * 等待 {@link #prefetch} 读完
+     *
+     * @return 状态，读取失败时返回 null
+     */
+    @Nullable
+    static DataInput await(@NonNull Future<DataInput> prefetch) {
+        try {
+            return prefetch.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            return null;
+        }
+    }
+
+    @Nullable
+    private static DataInput read(String name, int length) {
+        byte[] pending;
+        synchronized (sPendingWrites) {
+            pending = sPendingWrites.get(name);
+        }
+        if (pending != null) {
+            return ViewModelSavedState.input(pending);
+        }
+        File directory = getDirectory();
+        if (directory == null) {
+            return null;
+        }
+        File file = new File(directory, name);
+        if (file.length() != length) {
+            return null;
+        }
+        RandomAccessFile input = null;
+        try {
+            input = new RandomAccessFile(file, "r");
+            // 关闭文件后映射仍然有效
+            MappedByteBuffer buffer = input.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+            return new DataInputStream(new ByteBufferInputStream(buffer));
+        } catch (IOException e) {
+            return null;
+        } finally {
+            closeQuietly(input);
+        }
+    }
+
+    /**
+     * 在后台删除不再需要的文件，排在之前提交的写入之后
+     */
+    static void delete(@NonNull final Collection<String> names) {
+        final FutureTask<File> task = sDirectory;
+        if (names.isEmpty() || task == null) {
+            return;
+        }
+        synchronized (sReferenced) {
+            sReferenced.removeAll(names);
+        }
+        executor().execute(new Runnable() {
+            @Override
+            public void run() {
+                File directory = directory(task);
+                if (directory == null) {
+                    return;
+                }
+                for (String name : names) {
+                    //noinspection ResultOfMethodCallIgnored
+                    new File(directory, name).delete();
+                }
+            }
+        });
+    }
+
+    /**
+     * 每个进程第一次保存状态时调用：在后台删除之前的进程留下的、没有被引用的文件。
+     * 等到第一次保存才清理，这时前台页面已经恢复完，它们引用的文件都已经登记过了
+     */
+    static void sweepOnce() {
+        final FutureTask<File> task = sDirectory;
+        synchronized (sReferenced) {
+            if (sSwept || task == null) {
+                return;
+            }
+            sSwept = true;
+        }
+        final long maxAge = sMaxAgeMillis;
+        executor().execute(new Runnable() {
+            @Override
+            public void run() {
+                File directory = directory(task);
+                File[] files = directory == null ? null : directory.listFiles();
+                if (files == null) {
+                    return;
+                }
+                long expired = System.currentTimeMillis() - maxAge;
+                for (File file : files) {
+                    String name = file.getName();
+                    boolean delete;
+                    if (name.endsWith(TEMP_SUFFIX)) {
+                        // 写到一半进程就被杀了；这个进程的写入在同一个线程上，不会和清理同时进行
+                        delete = true;
+                    } else {
+                        synchronized (sReferenced) {
+                            delete = !sReferenced.contains(name) && file.lastModified() < expired;
+                        }
+                    }
+                    if (delete) {
+                        //noinspection ResultOfMethodCallIgnored
+                        file.delete();
+                    }
+                }
+            }
+        });
+    }
+
+    @Nullable
+    private static File directory(@Nullable FutureTask<File> task) {
+        if (task == null) {
+            return null;
+        }
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            return null;
+        }
+    }
+
+    private static void write(File directory, String name, byte[] state) {
+        if (directory == null) {
+            return;
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            return;
+        }
+        File temp = new File(directory, name + TEMP_SUFFIX);
+        FileOutputStream out = null;
+        boolean written = false;
+        try {
+            out = new FileOutputStream(temp);
+            out.write(state);
+            out.getFD().sync();
+            written = true;
+        } catch (IOException ignored) {
+            // 写失败就当作没有保存，恢复时这个 ViewModel 重新加载数据
+        } finally {
+            closeQuietly(out);
+        }
+        if (!written || !temp.renameTo(new File(directory, name))) {
+            //noinspection ResultOfMethodCallIgnored
+            temp.delete();
+        }
+    }
+
+    private static Executor executor() {
+        Executor executor = sExecutor;
+        return executor != null ? executor : DefaultExecutorHolder.EXECUTOR;
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private static final class FixedDirectory implements Callable<File> {
+        private final File mDirectory;
+
+        FixedDirectory(File directory) {
+            mDirectory = directory;
+        }
+
+        @Override
+        public File call() {
+            return mDirectory;
+        }
+    }
+
+    /**
+     * 直接从映射的内存读取，不复制成 byte[]
+     */
+    private static final class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer mBuffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            mBuffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return mBuffer.hasRemaining() ? mBuffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(@NonNull byte[] bytes, int offset, int length) {
+            if (length == 0) {
+                return 0;
+            }
+            if (!mBuffer.hasRemaining()) {
+                return -1;
+            }
+            length = Math.min(length, mBuffer.remaining());
+            mBuffer.get(bytes, offset, length);
+            return length;
+        }
+
+        @Override
+        public long skip(long n) {
+            int skipped = (int) Math.max(0, Math.min(n, mBuffer.remaining()));
+            mBuffer.position(mBuffer.position() + skipped);
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return mBuffer.remaining();
+        }
+    }
+
+    // 单线程保证同一个文件的写入排在删除之前；空闲 10 秒后线程退出
+    private static final class DefaultExecutorHolder {
+        static final Executor EXECUTOR = newExecutor("ViewModelStateSpill");
+    }
+
+    // 读文件单独一个线程，恢复时不用等保存时提交的写入
+    private static final class ReadExecutorHolder {
+        static final Executor EXECUTOR = newExecutor("ViewModelStateSpill-read");
+    }
+
+    private static Executor newExecutor(final String name) {
+        return new ThreadPoolExecutor(0, 1, 10, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(@NonNull Runnable runnable) {
+                        Thread thread = new Thread(runnable, name);
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+    }
+}
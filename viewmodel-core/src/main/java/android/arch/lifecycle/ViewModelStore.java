@@ -0,0 +1,778 @@
+package android.arch.lifecycle;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.DataInput;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 用来存储 ViewModel
+ * <p>
+ * 必须通过配置更改保留 ViewModelStore 的实例：
+ * <p>
+ * 如果此 ViewModelStore 的所有者由于配置而被销毁并重新创建
+ * 更改，所有者的新实例仍应具有相同的旧实例
+ * <p>
+ * 如果此 ViewModelStore 的所有者被销毁，并且不会被重新创建，
+ * 然后它应该在这个 viewModelStore 上调用 clear（），因此 ViewModels 通知他们不再使用。
+ * 当Activity或者Fragment销毁的时候就会调用clear方法
+ *
+ * TODO 问题点：
+ * 1.ViewModelStore被HolderFragment创建和持有
+ *
+ * TODO ViewModelStore 是每一个 Activity 或者 Fragment 都有一个
+ * <p>
+ * 线程安全：读不加锁，写在 this 上同步。onCleared 总是在锁外调用。
+ */
+public class ViewModelStore {
+
+    // 一个 Activity / Fragment 通常只有 1~5 个 ViewModel，少量时用数组顺序查找，
+    // 超过这个数量才升级成 ConcurrentHashMap
+    private static final int COMPACT_CAPACITY = 8;
+
+    // 紧凑模式下的数据，写时复制，读线程拿到的总是一个完整的快照
+    private volatile Compact mCompact = Compact.EMPTY;
+
+    // 超过 COMPACT_CAPACITY 后不为 null，此后所有数据都存在这里；先赋值 mMap 再把 mCompact 置空
+    private volatile ConcurrentHashMap<String, ViewModel> mMap;
+
+    // 正在创建中的 key，保证并发模式下每个 key 只创建一次，只在持有 this 锁时访问
+    private HashMap<String, PendingCreation> mPending;
+
+    // 每次 clear 加一，用来发现 clear 之后才创建完成的 ViewModel
+    private int mGeneration;
+
+    // HierarchicalViewModelProvider 的查找缓存：key -> 实际持有这个 ViewModel 的 store（可能是父级的 store）
+    private volatile ConcurrentHashMap<String, ViewModelStore> mResolutions;
+
+    // 保存 / 恢复过状态后不为 null，只在持有 this 锁时赋值
+    private volatile ViewModelSavedState mSavedState;
+
+    // 第一次通过 ViewModelLoaderCache.of 获取时才创建，clear 时释放
+    private volatile ViewModelLoaderCache mLoaderCache;
+
+    // owner 的描述（通常是 Activity / Fragment 的类名），只用于泄漏检测的报告
+    private volatile String mOwnerName;
+
+    // 最近一次通过 ViewModelStores 获取这个 store 的 owner 实例，弱引用，只在主线程访问
+    private WeakReference<Object> mRegisteredOwner;
+
+    // 打开了内存紧张回收策略时不为 null
+    private volatile ViewModelEvictionTracker mEvictionTracker;
+
+    // 处于 started（可见）状态的 owner 数量，大于 0 时不回收：界面可能正持有这些 ViewModel
+    private final AtomicInteger mStartedOwners = new AtomicInteger();
+
+    // 打开了回收策略的 store，弱引用，不影响 store 被回收
+    private static final WeakHashMap<ViewModelStore, Boolean> sEvictableStores =
+            new WeakHashMap<>();
+
+    final void put(String key, ViewModel viewModel) {
+        ViewModel oldViewModel;
+        synchronized (this) {
+            oldViewModel = putLocked(key, viewModel);
+        }
+        reportSize();
+        if (oldViewModel != null) {
+            oldViewModel.dispatchCleared();
+        }
+    }
+
+    private ViewModel putLocked(String key, ViewModel viewModel) {
+        ConcurrentHashMap<String, ViewModel> map = mMap;
+        if (map != null) {
+            return map.put(key, viewModel);
+        }
+        Compact compact = mCompact;
+        int index = compact.indexOf(key);
+        if (index >= 0) {
+            mCompact = compact.replace(index, viewModel);
+            return compact.mValues[index];
+        }
+        if (compact.mSize == COMPACT_CAPACITY) {
+            // 升级成 ConcurrentHashMap
+            map = new ConcurrentHashMap<>();
+            for (int i = 0; i < compact.mSize; i++) {
+                map.put(compact.mKeys[i], compact.mValues[i]);
+            }
+            map.put(key, viewModel);
+            mMap = map;
+            mCompact = null;
+            return null;
+        }
+        mCompact = compact.append(key, viewModel);
+        return null;
+    }
+
+    /**
+     * store 中 ViewModel 的数量
+     */
+    final int size() {
+        ConcurrentHashMap<String, ViewModel> map = mMap;
+        if (map != null) {
+            return map.size();
+        }
+        Compact compact = mCompact;
+        return compact != null ? compact.mSize : mMap.size();
+    }
+
+    private void reportSize() {
+        ViewModelMetricsListener metrics = ViewModelMetrics.listener();
+        if (metrics != null) {
+            metrics.onStoreSize(this, size());
+        }
+    }
+
+    final ViewModel get(String key) {
+        ConcurrentHashMap<String, ViewModel> map = mMap;
+        if (map != null) {
+            return map.get(key);
+        }
+        Compact compact = mCompact;
+        if (compact == null) {
+            // 读的过程中刚好升级成了 ConcurrentHashMap
+            return mMap.get(key);
+        }
+        int index = compact.indexOf(key);
+        return index >= 0 ? compact.mValues[index] : null;
+    }
+
+    /**
+     * 获取 key 已有的 ViewModel，不会创建。找到时和 {@link #getOrCreate} 的命中一样
+     * 更新回收顺序并记一次查找，没找到时不记：调用方接着会在别的 store 中查找或者创建
+     *
+     * @return ViewModel，没有或者类型不是 modelClass 时返回 null
+     */
+    @Nullable
+    final <T extends ViewModel> T getExisting(@NonNull String key, @NonNull Class<T> modelClass) {
+        ViewModel viewModel = get(key);
+        if (!modelClass.isInstance(viewModel)) {
+            return null;
+        }
+        onAccess(key, viewModel);
+        ViewModelMetricsListener metrics = ViewModelMetrics.listener();
+        if (metrics != null) {
+            metrics.onLookup(key, true);
+        }
+        //noinspection unchecked
+        return (T) viewModel;
+    }
+
+    /**
+     * 获取 key 对应的 ViewModel，没有就用 factory 创建。可以在任意线程调用，
+     * 多个线程同时请求同一个 key 时只有一个线程创建，其他线程等待它的结果。
+     * 正在被提前创建（{@link ViewModelPrefetcher}）的 key 也会等待提前创建的结果。
+     * <p>
+     * 创建期间 store 被 clear 的话，新创建的 ViewModel 不会放入 store，并立即调用 onCleared。
+     */
+    @NonNull
+    final <T extends ViewModel> T getOrCreate(@NonNull String key, @NonNull Class<T> modelClass,
+            @NonNull ViewModelProvider.Factory factory) {
+        ViewModel viewModel = get(key); // 先从缓存中获取
+        ViewModelMetricsListener metrics = ViewModelMetrics.listener();
+        if (modelClass.isInstance(viewModel)) {
+            onAccess(key, viewModel);
+            if (metrics != null) {
+                metrics.onLookup(key, true);
+            }
+            //noinspection unchecked
+            return (T) viewModel;
+        }
+        if (metrics != null) {
+            metrics.onLookup(key, false);
+        }
+        while (true) {
+            PendingCreation pending;
+            boolean creator = false;
+            synchronized (this) {
+                viewModel = get(key);
+                if (modelClass.isInstance(viewModel)) {
+                    onAccess(key, viewModel);
+                    //noinspection unchecked
+                    return (T) viewModel;
+                }
+                pending = mPending == null ? null : mPending.get(key);
+                if (pending == null) {
+                    pending = addPendingLocked(key, Thread.currentThread());
+                    creator = true;
+                } else if (pending.mThread == Thread.currentThread()) {
+                    throw new IllegalStateException("Recursive creation of ViewModel for key " + key);
+                }
+            }
+            if (!creator) {
+                viewModel = pending.await(key);
+                if (modelClass.isInstance(viewModel)) {
+                    onAccess(key, viewModel);
+                    //noinspection unchecked
+                    return (T) viewModel;
+                }
+                // 创建失败或者创建的类型不一致，重新来一遍
+                continue;
+            }
+
+            // 缓存没有就用 Factory 创建，再存储到 ViewModelStore 中
+            T created = null;
+            long start = metrics != null ? System.nanoTime() : 0;
+            try {
+                created = create(key, modelClass, factory);
+                if (created == null) {
+                    // 当作创建失败：等待的线程重新来一遍，不会把 null 放进 store
+                    throw new IllegalStateException("Factory " + factory.getClass().getName()
+                            + " returned null for " + modelClass.getName());
+                }
+            } finally {
+                completePending(key, pending, created);
+            }
+            if (metrics != null) {
+                metrics.onCreated(modelClass, System.nanoTime() - start);
+            }
+            onAccess(key, created);
+            return created;
+        }
+    }
+
+    /**
+     * 用 factory 创建 key 对应的 ViewModel，有上一个进程保存的状态时交给 {@link SavedStateFactory}，
+     * 或者创建后由 {@link SavedStateViewModel#restoreState} 恢复
+     */
+    private <T extends ViewModel> T create(String key, Class<T> modelClass,
+            ViewModelProvider.Factory factory) {
+        ViewModelSavedState savedState = mSavedState;
+        DataInput state = savedState == null ? null : savedState.take(key);
+        if (state == null) {
+            return factory.create(modelClass);
+        }
+        try {
+            if (factory instanceof SavedStateFactory) {
+                return ((SavedStateFactory) factory).create(modelClass, state);
+            }
+            T viewModel = factory.create(modelClass);
+            if (viewModel instanceof SavedStateViewModel) {
+                ((SavedStateViewModel) viewModel).restoreState(state);
+            }
+            return viewModel;
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot restore state of ViewModel for key " + key, e);
+        }
+    }
+
+    /**
+     * 把 store 中所有 {@link SavedStateViewModel} 的状态写成一个二进制快照，在 owner 的
+     * onSaveInstanceState 中调用。状态版本号没有变化的 ViewModel 不会重新编码，
+     * 都没有变化时返回和上一次相同的快照。
+     *
+     * @return 快照，没有需要保存的状态时返回 null
+     */
+    @Nullable
+    public final byte[] saveState() {
+        List<String> keys = new ArrayList<>();
+        List<ViewModel> viewModels = new ArrayList<>();
+        ViewModelSavedState savedState;
+        synchronized (this) {
+            snapshotLocked(keys, viewModels);
+            savedState = savedStateLocked();
+        }
+        return savedState.save(keys, viewModels);
+    }
+
+    /**
+     * 读入上一个进程中 {@link #saveState()} 保存的快照，之后第一次获取对应 key 的 ViewModel 时恢复它的状态。
+     * 必须在获取这些 ViewModel 之前调用。store 已经保存或者恢复过状态时（例如配置改变后仍然是同一个 store）忽略。
+     *
+     * @return 快照格式错误时返回 false：不会抛出异常，快照被丢弃，ViewModel 都不带状态重新创建
+     */
+    public final boolean restoreState(@Nullable byte[] snapshot) {
+        if (snapshot == null) {
+            return true;
+        }
+        ViewModelSavedState savedState;
+        synchronized (this) {
+            if (mSavedState != null) {
+                return true;
+            }
+            savedState = savedStateLocked();
+        }
+        return savedState.restore(snapshot);
+    }
+
+    private ViewModelSavedState savedStateLocked() {
+        ViewModelSavedState savedState = mSavedState;
+        if (savedState == null) {
+            savedState = new ViewModelSavedState();
+            mSavedState = savedState;
+        }
+        return savedState;
+    }
+
+    /**
+     * 这个 store 的加载缓存，第一次用到时才创建
+     */
+    @NonNull
+    final ViewModelLoaderCache loaderCache() {
+        ViewModelLoaderCache cache = mLoaderCache;
+        if (cache == null) {
+            synchronized (this) {
+                cache = mLoaderCache;
+                if (cache == null) {
+                    cache = new ViewModelLoaderCache();
+                    mLoaderCache = cache;
+                }
+            }
+        }
+        return cache;
+    }
+
+    /**
+     * 记录 store 的 owner，{@link ViewModelLeakWatcher} 报告时用来定位是哪个页面的 ViewModel
+     */
+    final void setOwnerName(@Nullable String ownerName) {
+        mOwnerName = ownerName;
+    }
+
+    /**
+     * 记录 owner 实例已经注册过这个 store，同一个实例之后的查找不用再注册。
+     * 配置改变重建的 owner 是新的实例，会重新注册
+     *
+     * @return owner 是第一次注册时返回 true
+     */
+    final boolean registerOwner(@NonNull Object owner) {
+        if (mRegisteredOwner != null && mRegisteredOwner.get() == owner) {
+            return false;
+        }
+        mRegisteredOwner = new WeakReference<>(owner);
+        return true;
+    }
+
+    /**
+     * 层级查找的缓存，第一次用到时才创建，clear 时丢弃
+     */
+    @NonNull
+    final ConcurrentHashMap<String, ViewModelStore> resolutions() {
+        ConcurrentHashMap<String, ViewModelStore> resolutions = mResolutions;
+        if (resolutions == null) {
+            synchronized (this) {
+                resolutions = mResolutions;
+                if (resolutions == null) {
+                    resolutions = new ConcurrentHashMap<>();
+                    mResolutions = resolutions;
+                }
+            }
+        }
+        return resolutions;
+    }
+
+    private void onAccess(String key, ViewModel viewModel) {
+        ViewModelEvictionTracker tracker = mEvictionTracker;
+        if (tracker != null && viewModel instanceof Reconstructible) {
+            tracker.touch(key);
+        }
+    }
+
+    /**
+     * owner（或者挂在共享 store 上的某个 owner）进入 / 离开 started 状态，由 Activity / Fragment 的绑定代码调用
+     */
+    final void onOwnerStarted() {
+        mStartedOwners.incrementAndGet();
+    }
+
+    final void onOwnerStopped() {
+        mStartedOwners.decrementAndGet();
+    }
+
+    /**
+     * 打开内存紧张时的回收：内存紧张时按 policy 的顺序回收实现了 {@link Reconstructible} 的 ViewModel，
+     * 下次通过 ViewModelProvider 获取时重新创建。传 null 关闭。
+     * <p>
+     * 只回收 owner 已经 stop（在后台或者在返回栈中）的 store，可见的页面中的 ViewModel 不会被回收。
+     */
+    public final void setEvictionPolicy(@Nullable ViewModelEvictionPolicy policy) {
+        mEvictionTracker = policy == null ? null : new ViewModelEvictionTracker(policy);
+        synchronized (sEvictableStores) {
+            if (policy == null) {
+                sEvictableStores.remove(this);
+            } else {
+                sEvictableStores.put(this, Boolean.TRUE);
+            }
+        }
+    }
+
+    /**
+     * 回收这个 store 中的 {@link Reconstructible} ViewModel，直到回收的估算大小达到它们总大小的 fraction，
+     * 被回收的 ViewModel 会调用 onCleared。没有打开回收策略，或者有 owner 处于 started 状态时什么也不做。
+     *
+     * @param fraction 0 ~ 1，1 表示全部回收
+     * @return 回收的 ViewModel 数量
+     */
+    public final int trim(float fraction) {
+        ViewModelEvictionTracker tracker = mEvictionTracker;
+        if (tracker == null || fraction <= 0f || mStartedOwners.get() > 0) {
+            return 0;
+        }
+        List<String> evictedKeys = new ArrayList<>();
+        List<ViewModel> evicted = new ArrayList<>();
+        synchronized (this) {
+            List<String> keys = new ArrayList<>();
+            List<ViewModel> viewModels = new ArrayList<>();
+            snapshotLocked(keys, viewModels);
+            for (String key : tracker.selectVictims(keys, viewModels, fraction)) {
+                ViewModel viewModel = removeLocked(key);
+                if (viewModel != null) {
+                    tracker.forget(key);
+                    evictedKeys.add(key);
+                    evicted.add(viewModel);
+                }
+            }
+        }
+        ViewModelSavedState savedState = mSavedState;
+        for (int i = 0; i < evicted.size(); i++) {
+            ViewModel viewModel = evicted.get(i);
+            if (savedState != null && viewModel instanceof SavedStateViewModel) {
+                // 重新创建时恢复回收前的状态
+                savedState.retain(evictedKeys.get(i), viewModel);
+            }
+            viewModel.dispatchCleared();
+        }
+        return evicted.size();
+    }
+
+    /**
+     * 对所有打开了回收策略的 store 调用 {@link #trim(float)}
+     *
+     * @return 回收的 ViewModel 总数
+     */
+    public static int trimAll(float fraction) {
+        List<ViewModelStore> stores;
+        synchronized (sEvictableStores) {
+            stores = new ArrayList<>(sEvictableStores.keySet());
+        }
+        int evicted = 0;
+        for (ViewModelStore store : stores) {
+            evicted += store.trim(fraction);
+        }
+        return evicted;
+    }
+
+    private void snapshotLocked(List<String> keys, List<ViewModel> viewModels) {
+        ConcurrentHashMap<String, ViewModel> map = mMap;
+        if (map != null) {
+            for (Map.Entry<String, ViewModel> entry : map.entrySet()) {
+                keys.add(entry.getKey());
+                viewModels.add(entry.getValue());
+            }
+            return;
+        }
+        Compact compact = mCompact;
+        for (int i = 0; i < compact.mSize; i++) {
+            keys.add(compact.mKeys[i]);
+            viewModels.add(compact.mValues[i]);
+        }
+    }
+
+    private ViewModel removeLocked(String key) {
+        ConcurrentHashMap<String, ViewModel> map = mMap;
+        if (map != null) {
+            return map.remove(key);
+        }
+        Compact compact = mCompact;
+        int index = compact.indexOf(key);
+        if (index < 0) {
+            return null;
+        }
+        mCompact = compact.remove(index);
+        return compact.mValues[index];
+    }
+
+    /**
+     * 登记一个在其他地方（例如提前创建的线程池）进行的创建，之后对这个 key 的 get 会等待它完成。
+     *
+     * @return 登记成功返回 PendingCreation，完成后必须调用 {@link #completePending}；
+     * key 已经有 ViewModel 或者已经在创建中时返回 null
+     */
+    final synchronized PendingCreation adoptPending(@NonNull String key) {
+        if (get(key) != null || (mPending != null && mPending.containsKey(key))) {
+            return null;
+        }
+        return addPendingLocked(key, null);
+    }
+
+    private PendingCreation addPendingLocked(String key, Thread thread) {
+        PendingCreation pending = new PendingCreation(thread, mGeneration);
+        if (mPending == null) {
+            mPending = new HashMap<>();
+        }
+        mPending.put(key, pending);
+        return pending;
+    }
+
+    /**
+     * 结束一次创建：created 为 null 表示创建失败。创建期间 store 被 clear 过的话
+     * created 不放入 store，直接调用 onCleared。
+     */
+    final void completePending(@NonNull String key, @NonNull PendingCreation pending,
+            ViewModel created) {
+        ViewModel oldViewModel = null;
+        boolean stale;
+        synchronized (this) {
+            if (mPending != null && mPending.get(key) == pending) {
+                mPending.remove(key);
+            }
+            stale = pending.mGeneration != mGeneration;
+            if (created != null && !stale) {
+                oldViewModel = putLocked(key, created);
+            }
+        }
+        pending.complete(stale ? null : created);
+        if (created != null && !stale) {
+            reportSize();
+        }
+        if (oldViewModel != null) {
+            oldViewModel.dispatchCleared();
+        }
+        if (stale && created != null) {
+            created.dispatchCleared();
+        }
+    }
+
+    /**
+     * 清除内部存储并通知 ViewModel 它们不再使用
+     * <p>
+     * 打开 {@link ViewModelTeardown} 后，实现了 {@link BackgroundClearable} 的 ViewModel 同步移出 store，
+     * 但 onCleared 在后台线程批量执行。
+     */
+    public final void clear() {
+        List<String> keys = new ArrayList<>();
+        List<ViewModel> viewModels = new ArrayList<>();
+        ViewModelSavedState savedState;
+        ViewModelLoaderCache loaderCache;
+        synchronized (this) {
+            mGeneration++;
+            mResolutions = null;
+            loaderCache = mLoaderCache;
+            mLoaderCache = null;
+            savedState = mSavedState;
+            mSavedState = null;
+            ViewModelEvictionTracker tracker = mEvictionTracker;
+            if (tracker != null) {
+                tracker.forgetAll();
+            }
+            snapshotLocked(keys, viewModels);
+            ConcurrentHashMap<String, ViewModel> map = mMap;
+            if (map != null) {
+                map.clear();
+            } else {
+                mCompact = Compact.EMPTY;
+            }
+        }
+        if (loaderCache != null) {
+            loaderCache.release();
+        }
+        if (savedState != null) {
+            // owner 不会再重建，落盘的状态也不再需要
+            savedState.discard();
+        }
+        ViewModelMetricsListener metrics = ViewModelMetrics.listener();
+        long start = metrics != null ? System.nanoTime() : 0;
+        int clearedCount = viewModels.size();
+        boolean watch = ViewModelLeakWatcher.isEnabled();
+        if (!ViewModelTeardown.isEnabled()) {
+            for (ViewModel vm : viewModels) {
+                vm.dispatchCleared();
+            }
+        } else {
+            // 后台销毁：能在后台 onCleared 的打包交给专用线程池，其余的照常立即调用
+            List<String> foregroundKeys = new ArrayList<>();
+            List<ViewModel> foreground = new ArrayList<>();
+            final List<String> backgroundKeys = new ArrayList<>();
+            final List<ViewModel> background = new ArrayList<>();
+            for (int i = 0; i < viewModels.size(); i++) {
+                ViewModel vm = viewModels.get(i);
+                if (vm instanceof BackgroundClearable) {
+                    // onCleared 稍后在后台执行，后台任务现在就取消
+                    vm.cancelTasks();
+                    backgroundKeys.add(keys.get(i));
+                    background.add(vm);
+                } else {
+                    vm.dispatchCleared();
+                    foregroundKeys.add(keys.get(i));
+                    foreground.add(vm);
+                }
+            }
+            if (!background.isEmpty()) {
+                clearedCount -= background.size();
+                // 后台的这一批 onCleared 之前还被强引用着，执行完才开始观察
+                final String ownerName = mOwnerName;
+                ViewModelTeardown.clearInBackground(background, !watch ? null : new Runnable() {
+                    @Override
+                    public void run() {
+                        ViewModelLeakWatcher.watch(ownerName, backgroundKeys, background);
+                    }
+                });
+            }
+            keys = foregroundKeys;
+            viewModels = foreground;
+        }
+        if (metrics != null) {
+            metrics.onStoreCleared(clearedCount, System.nanoTime() - start);
+        }
+        if (watch) {
+            // onCleared 之后它们都应该能被回收了
+            ViewModelLeakWatcher.watch(mOwnerName, keys, viewModels);
+        }
+    }
+
+    /**
+     * 紧凑模式的不可变快照：key 的 hash、key、ViewModel 分别放在三个数组里，
+     * 不需要 HashMap 的 Entry 对象。修改时复制出一个新的快照，数组最多 8 个元素，复制很便宜。
+     */
+    private static final class Compact {
+        static final Compact EMPTY = new Compact(new int[0], new String[0], new ViewModel[0]);
+
+        final int[] mHashes;
+        final String[] mKeys;
+        final ViewModel[] mValues;
+        final int mSize;
+
+        Compact(int[] hashes, String[] keys, ViewModel[] values) {
+            mHashes = hashes;
+            mKeys = keys;
+            mValues = values;
+            mSize = keys.length;
+        }
+
+        int indexOf(String key) {
+            // 默认 key 按 class 缓存成同一个实例，绝大多数情况下引用比较就能命中
+            String[] keys = mKeys;
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] == key) {
+                    return i;
+                }
+            }
+            int hash = key.hashCode();
+            int[] hashes = mHashes;
+            for (int i = 0; i < keys.length; i++) {
+                if (hashes[i] == hash && key.equals(keys[i])) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        Compact append(String key, ViewModel viewModel) {
+            int[] hashes = new int[mSize + 1];
+            String[] keys = new String[mSize + 1];
+            ViewModel[] values = new ViewModel[mSize + 1];
+            System.arraycopy(mHashes, 0, hashes, 0, mSize);
+            System.arraycopy(mKeys, 0, keys, 0, mSize);
+            System.arraycopy(mValues, 0, values, 0, mSize);
+            hashes[mSize] = key.hashCode();
+            keys[mSize] = key;
+            values[mSize] = viewModel;
+            return new Compact(hashes, keys, values);
+        }
+
+        Compact remove(int index) {
+            int size = mSize - 1;
+            int[] hashes = new int[size];
+            String[] keys = new String[size];
+            ViewModel[] values = new ViewModel[size];
+            System.arraycopy(mHashes, 0, hashes, 0, index);
+            System.arraycopy(mKeys, 0, keys, 0, index);
+            System.arraycopy(mValues, 0, values, 0, index);
+            System.arraycopy(mHashes, index + 1, hashes, index, size - index);
+            System.arraycopy(mKeys, index + 1, keys, index, size - index);
+            System.arraycopy(mValues, index + 1, values, index, size - index);
+            return new Compact(hashes, keys, values);
+        }
+
+        Compact replace(int index, ViewModel viewModel) {
+            ViewModel[] values = mValues.clone();
+            values[index] = viewModel;
+            return new Compact(mHashes, mKeys, values);
+        }
+    }
+
+    /**
+     * 一次正在进行中的创建，其他线程在上面等待结果
+     */
+    static final class PendingCreation {
+        // 正在等待其他线程创建的线程 -> 它在等待的创建，所有 store 共用：工厂可以从别的 store
+        // （父级、共享 scope）获取 ViewModel，循环可能跨 store。两个线程的工厂互相 get 对方正在创建的 key 时，
+        // 等待之前沿着这张图就能发现循环。只在发生等待时访问，不加全局锁
+        private static final ConcurrentHashMap<Thread, PendingCreation> sWaiting =
+                new ConcurrentHashMap<>();
+
+        // 正在创建的线程，用来发现递归和循环等待；外部登记的创建为 null
+        final Thread mThread;
+        // 开始创建时 store 的 generation
+        final int mGeneration;
+        private final CountDownLatch mDone = new CountDownLatch(1);
+        private volatile ViewModel mResult;
+
+        PendingCreation(Thread thread, int generation) {
+            mThread = thread;
+            mGeneration = generation;
+        }
+
+        void complete(ViewModel result) {
+            mResult = result;
+            mDone.countDown();
+        }
+
+        /**
+         * @return 创建好的 ViewModel，创建失败时返回 null
+         * @throws IllegalStateException 等待会形成循环（当前线程正在创建的 ViewModel 被这次创建间接等待）
+         */
+        ViewModel await(String key) {
+            Thread current = Thread.currentThread();
+            // 先登记再沿着图检查：两个线程同时开始互相等待时，至少后登记的一方能看到对方
+            sWaiting.put(current, this);
+            if (waitsFor(current)) {
+                sWaiting.remove(current);
+                throw new IllegalStateException("Circular creation of ViewModels: waiting for key "
+                        + key + " would deadlock");
+            }
+            boolean interrupted = false;
+            try {
+                while (true) {
+                    try {
+                        mDone.await();
+                        break;
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+            } finally {
+                sWaiting.remove(current);
+            }
+            if (interrupted) {
+                current.interrupt();
+            }
+            return mResult;
+        }
+
+        /**
+         * 这次创建是否（间接）在等待 thread。其他线程之间的循环不含 thread，最多走图中的节点数那么多步
+         */
+        private boolean waitsFor(Thread thread) {
+            PendingCreation pending = this;
+            for (int steps = sWaiting.size(); pending != null && pending.mThread != null && steps >= 0;
+                    steps--) {
+                if (pending.mThread == thread) {
+                    return true;
+                }
+                pending = sWaiting.get(pending.mThread);
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package android.arch.lifecycle;
+
+import android.support.annotation.AnyThread;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 属于一个 ViewModel 的后台任务，通过 {@link ViewModel#getTaskScope()} 获取，第一次用到时才创建。
+ * <p>
+ * 所有任务在一个全局共享、线程数有上限的线程池上执行。ViewModel 被清除（onCleared 之前）时，
+ * 还在排队的任务直接取消，正在执行的任务被中断，之后提交的任务不会执行。
+ * <p>
+ * 被 {@link ItemViewModelPool} 回收的 ViewModel 同样取消所有任务，之后换一个新的 scope。
+ * <p>
+ * 全局统计：{@link #getCancelledCount()} 是因为 ViewModel 被清除或者回收而取消的任务数，
+ * {@link #getEstimatedWallTimeSavedNanos()} 按已完成任务的平均耗时（墙钟时间，包括等待 IO 和锁的时间，
+ * 不是 CPU 时间）估算这些任务省下的时间。
+ */
+public final class ViewModelTaskScope {
+
+    private static final int MAX_THREADS =
+            Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+    private static volatile Executor sExecutor;
+
+    private static final AtomicLong sCompletedCount = new AtomicLong();
+    private static final AtomicLong sCompletedNanos = new AtomicLong();
+    private static final AtomicLong sCancelledCount = new AtomicLong();
+    private static final AtomicLong sWallTimeSavedNanos = new AtomicLong();
+
+    // 还没有结束的任务，只在持有 this 锁时访问
+    private final HashSet<ScopedTask<?>> mTasks = new HashSet<>();
+    private boolean mCancelled;
+
+    ViewModelTaskScope() {
+    }
+
+    /**
+     * 在共享线程池上执行 task
+     *
+     * @return task 的 Future；scope 已经取消时返回一个已经取消的 Future
+     */
+    @NonNull
+    @AnyThread
+    public Future<?> submit(@NonNull Runnable task) {
+        return submit(new ScopedTask<>(this, task, null));
+    }
+
+    /**
+     * 在共享线程池上执行 task
+     *
+     * @return task 的 Future；scope 已经取消时返回一个已经取消的 Future
+     */
+    @NonNull
+    @AnyThread
+    public <V> Future<V> submit(@NonNull Callable<V> task) {
+        return submit(new ScopedTask<>(this, task));
+    }
+
+    private <V> Future<V> submit(ScopedTask<V> task) {
+        synchronized (this) {
+            if (mCancelled) {
+                task.cancel(false);
+                return task;
+            }
+            mTasks.add(task);
+        }
+        executor().execute(task);
+        return task;
+    }
+
+    /**
+     * @return 所属的 ViewModel 是否已经被清除
+     */
+    @AnyThread
+    public synchronized boolean isCancelled() {
+        return mCancelled;
+    }
+
+    /**
+     * ViewModel 被清除时调用：取消所有没有结束的任务
+     */
+    void cancel() {
+        List<ScopedTask<?>> tasks;
+        synchronized (this) {
+            if (mCancelled) {
+                return;
+            }
+            mCancelled = true;
+            tasks = new ArrayList<>(mTasks);
+            mTasks.clear();
+        }
+        if (tasks.isEmpty()) {
+            return;
+        }
+        long completed = sCompletedCount.get();
+        long average = completed == 0 ? 0 : sCompletedNanos.get() / completed;
+        long now = System.nanoTime();
+        Executor executor = sExecutor;
+        for (ScopedTask<?> task : tasks) {
+            long start = task.mStartNanos;
+            if (!task.cancel(true)) {
+                continue;
+            }
+            sCancelledCount.incrementAndGet();
+            // 没开始的任务省下整个平均执行时间，执行到一半的省下剩余的部分
+            sWallTimeSavedNanos.addAndGet(start == 0 ? average : Math.max(0, average - (now - start)));
+            if (start == 0) {
+                // 从队列中移除，不占用队列
+                Executor pool = executor != null ? executor : DefaultExecutorHolder.EXECUTOR;
+                if (pool instanceof ThreadPoolExecutor) {
+                    ((ThreadPoolExecutor) pool).remove(task);
+                }
+            }
+        }
+    }
+
+    private synchronized void remove(ScopedTask<?> task) {
+        mTasks.remove(task);
+    }
+
+    /**
+     * 指定执行任务的线程池，传 null 恢复成默认的共享线程池（最多 4 个线程）
+     */
+    public static void setExecutor(@Nullable Executor executor) {
+        sExecutor = executor;
+    }
+
+    /**
+     * 正常执行完成（包括抛出异常）的任务数
+     */
+    public static long getCompletedCount() {
+        return sCompletedCount.get();
+    }
+
+    /**
+     * 因为所属的 ViewModel 被清除或者回收而取消的任务数
+     */
+    public static long getCancelledCount() {
+        return sCancelledCount.get();
+    }
+
+    /**
+     * 取消任务省下的墙钟时间的估算值，按取消时已完成任务的平均耗时计算。
+     * 耗时包括任务等待 IO 和锁的时间，不能当作省下的 CPU 时间
+     */
+    public static long getEstimatedWallTimeSavedNanos() {
+        return sWallTimeSavedNanos.get();
+    }
+
+    /**
+     * 统计清零
+     */
+    public static void resetStats() {
+        sCompletedCount.set(0);
+        sCompletedNanos.set(0);
+        sCancelledCount.set(0);
+        sWallTimeSavedNanos.set(0);
+    }
+
+    private static Executor executor() {
+        Executor executor = sExecutor;
+        return executor != null ? executor : DefaultExecutorHolder.EXECUTOR;
+    }
+
+    private static final class ScopedTask<V> extends FutureTask<V> {
+        private final ViewModelTaskScope mScope;
+        // 开始执行的时间，没开始时为 0
+        volatile long mStartNanos;
+
+        ScopedTask(ViewModelTaskScope scope, Callable<V> callable) {
+            super(callable);
+            mScope = scope;
+        }
+
+        ScopedTask(ViewModelTaskScope scope, Runnable runnable, V result) {
+            super(runnable, result);
+            mScope = scope;
+        }
+
+        @Override
+        public void run() {
+            if (isDone()) {
+                return;
+            }
+            long start = System.nanoTime();
+            mStartNanos = start;
+            super.run();
+            if (!isCancelled()) {
+                sCompletedCount.incrementAndGet();
+                sCompletedNanos.addAndGet(System.nanoTime() - start);
+            }
+        }
+
+        @Override
+        protected void done() {
+            mScope.remove(this);
+        }
+    }
+
+    // 全局共享的线程池，第一次用到时才创建；空闲 30 秒后线程退出
+    private static final class DefaultExecutorHolder {
+        static final Executor EXECUTOR;
+
+        static {
+            final AtomicInteger count = new AtomicInteger();
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_THREADS, MAX_THREADS,
+                    30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                    new ThreadFactory() {
+                        @Override
+                        public Thread newThread(@NonNull Runnable runnable) {
+                            Thread thread = new Thread(runnable,
+                                    "ViewModelTask-" + count.incrementAndGet());
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+            executor.allowCoreThreadTimeOut(true);
+            EXECUTOR = executor;
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package android.arch.lifecycle;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ViewModelStore clear 时的后台销毁配置，默认关闭。
+ * <p>
+ * 打开后 {@link ViewModelStore#clear()} 仍然同步地把所有 ViewModel 从 store 中移除，主线程相关的
+ * ViewModel 照常立即 onCleared；实现了 {@link BackgroundClearable} 的 ViewModel 则打包成一批，
+ * 交给专用的线程池依次调用 onCleared，避免关闭页面时卡顿。
+ */
+public final class ViewModelTeardown {
+
+    /**
+     * 后台销毁完成的回调，在执行销毁的线程上调用，主要给测试使用
+     */
+    public interface Listener {
+        /**
+         * @param clearedCount   这一批调用了 onCleared 的 ViewModel 数量
+         * @param durationNanos  这一批 onCleared 的总耗时
+         */
+        void onBatchCleared(int clearedCount, long durationNanos);
+    }
+
+    private static volatile boolean sEnabled;
+    private static volatile Executor sExecutor;
+    private static volatile Listener sListener;
+
+    private ViewModelTeardown() {
+    }
+
+    /**
+     * 打开或关闭后台销毁
+     */
+    public static void setEnabled(boolean enabled) {
+        sEnabled = enabled;
+    }
+
+    public static boolean isEnabled() {
+        return sEnabled;
+    }
+
+    /**
+     * 指定执行后台销毁的 Executor，传 null 恢复成默认的单线程线程池
+     */
+    public static void setExecutor(@Nullable Executor executor) {
+        sExecutor = executor;
+    }
+
+    public static void setListener(@Nullable Listener listener) {
+        sListener = listener;
+    }
+
+    /**
+     * 把一批已经从 store 中移除的 ViewModel 交给后台调用 onCleared
+     *
+     * @param afterCleared 这一批都调用过 onCleared 之后在同一个线程上执行，可以为 null；
+     *                     可以接管 viewModels 列表
+     */
+    static void clearInBackground(@NonNull final List<ViewModel> viewModels,
+            @Nullable final Runnable afterCleared) {
+        Executor executor = sExecutor;
+        if (executor == null) {
+            executor = DefaultExecutorHolder.EXECUTOR;
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                long start = System.nanoTime();
+                RuntimeException failure = clearAll(viewModels);
+                Listener listener = sListener;
+                if (listener != null) {
+                    listener.onBatchCleared(viewModels.size(), System.nanoTime() - start);
+                }
+                if (afterCleared != null) {
+                    afterCleared.run();
+                }
+                if (failure != null) {
+                    throw failure;
+                }
+            }
+        });
+    }
+
+    /**
+     * 依次调用 onCleared，一个 ViewModel 失败不影响同一批里的其他 ViewModel
+     *
+     * @return 第一个失败，都成功时返回 null
+     */
+    private static RuntimeException clearAll(List<ViewModel> viewModels) {
+        // 单独一个方法，返回后线程栈上不再留着这一批中的 ViewModel
+        RuntimeException failure = null;
+        for (ViewModel viewModel : viewModels) {
+            try {
+                viewModel.dispatchCleared();
+            } catch (RuntimeException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+        return failure;
+    }
+
+    // 专用线程池，第一次用到时才创建；空闲 10 秒后线程退出
+    private static final class DefaultExecutorHolder {
+        static final Executor EXECUTOR = new ThreadPoolExecutor(0, 1, 10, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(@NonNull Runnable runnable) {
+                        Thread thread = new Thread(runnable, "ViewModelTeardown");
+                        thread.setDaemon(true);
+                        thread.setPriority(Thread.MIN_PRIORITY);
+                        return thread;
+                    }
+                });
+    }
+}
@@ -0,0 +1,164 @@
+package android.arch.lifecycle;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import android.support.annotation.NonNull;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+
+public class ItemViewModelPoolTest {
+
+    private ViewModelStore mStore;
+    private ItemViewModelPool<Row> mPool;
+
+    @Before
+    public void setUp() {
+        mStore = new ViewModelStore();
+        mPool = ItemViewModelPool.of(mStore, Row.class, new ViewModelProvider.NewInstanceFactory(), 5);
+    }
+
+    @Test
+    public void samePoolPerStore() {
+        assertSame(mPool, ItemViewModelPool.of(mStore, Row.class,
+                new ViewModelProvider.NewInstanceFactory(), 5));
+    }
+
+    @Test
+    public void laterOfReplacesFactory() {
+        mPool.get("first");
+        final int[] created = new int[1];
+        ItemViewModelPool<Row> pool = ItemViewModelPool.of(mStore, Row.class,
+                new ViewModelProvider.Factory() {
+                    @NonNull
+                    @Override
+                    public <V extends ViewModel> V create(@NonNull Class<V> modelClass) {
+                        created[0]++;
+                        //noinspection unchecked
+                        return (V) new Row();
+                    }
+                }, 5);
+        assertSame(mPool, pool);
+        pool.get("second");
+        assertEquals(1, created[0]);
+    }
+
+    @Test
+    public void scrollingReusesViewModels() {
+        for (int i = 0; i < 1000; i++) {
+            Row row = mPool.get("item" + i);
+            assertEquals("item" + i, row.mKey);
+            if (i >= 3) {
+                mPool.release("item" + (i - 3));
+            }
+        }
+        assertEquals(4, mPool.getCreatedCount());
+        assertEquals(1000, mPool.getBindCount());
+        assertEquals(3, mPool.getBoundCount());
+    }
+
+    @Test
+    public void boundViewModelsAreNeverStolen() {
+        Map<String, Row> bound = new HashMap<>();
+        for (int i = 0; i < 10; i++) {
+            bound.put("item" + i, mPool.get("item" + i));
+        }
+        // 超过 capacity 时池临时变大
+        assertEquals(10, mPool.getBoundCount());
+        assertEquals(10, mPool.getCreatedCount());
+        for (Map.Entry<String, Row> entry : bound.entrySet()) {
+            assertSame(entry.getValue(), mPool.get(entry.getKey()));
+            assertEquals(entry.getKey(), entry.getValue().mKey);
+        }
+
+        // 超出 capacity 的部分 release 时清除
+        int cleared = 0;
+        for (int i = 0; i < 10; i++) {
+            mPool.release("item" + i);
+        }
+        for (Row row : bound.values()) {
+            cleared += row.mCleared;
+        }
+        assertEquals(5, cleared);
+        assertEquals(0, mPool.getBoundCount());
+    }
+
+    @Test
+    public void recycleCancelsTasksAndResetsScope() throws Exception {
+        Row row = mPool.get("item");
+        ViewModelTaskScope scope = row.getTaskScope();
+        final CountDownLatch never = new CountDownLatch(1);
+        Future<Object> task = scope.submit(new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+                never.await();
+                return null;
+            }
+        });
+
+        mPool.release("item");
+        assertTrue(task.isCancelled());
+        assertNull(row.mKey);
+        assertEquals(0, row.mCleared);
+
+        Row reused = mPool.get("other");
+        assertSame(row, reused);
+        assertNotSame(scope, reused.getTaskScope());
+        assertFalse(reused.getTaskScope().isCancelled());
+    }
+
+    @Test
+    public void shrinkingCapacityClearsFreeViewModels() {
+        Row[] rows = new Row[4];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = mPool.get("item" + i);
+        }
+        for (int i = 0; i < rows.length; i++) {
+            mPool.release("item" + i);
+        }
+        mPool.setCapacity(1);
+        int cleared = 0;
+        for (Row row : rows) {
+            cleared += row.mCleared;
+        }
+        assertEquals(3, cleared);
+
+        mStore.clear();
+        cleared = 0;
+        for (Row row : rows) {
+            cleared += row.mCleared;
+        }
+        assertEquals(4, cleared);
+    }
+
+    public static class Row extends ViewModel implements RecyclableViewModel {
+        String mKey;
+        int mCleared;
+
+        @Override
+        public void onBind(@NonNull String key) {
+            mKey = key;
+        }
+
+        @Override
+        public void onRecycle() {
+            mKey = null;
+        }
+
+        @Override
+        protected void onCleared() {
+            mCleared++;
+        }
+    }
+}
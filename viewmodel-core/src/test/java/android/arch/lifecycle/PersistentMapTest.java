@@ -0,0 +1,194 @@
+package android.arch.lifecycle;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+public class PersistentMapTest {
+
+    @Test
+    public void matchesHashMap() {
+        Random random = new Random(1);
+        PersistentMap<Key, Integer> map = PersistentMap.empty();
+        Map<Key, Integer> expected = new HashMap<>();
+        for (int i = 0; i < 50000; i++) {
+            Key key = randomKey(random);
+            if (random.nextInt(4) == 0) {
+                map = map.remove(key);
+                expected.remove(key);
+            } else {
+                Integer value = random.nextInt();
+                map = map.put(key, value);
+                expected.put(key, value);
+            }
+        }
+        assertContents(expected, map);
+
+        for (Key key : new ArrayList<>(expected.keySet())) {
+            map = map.remove(key);
+        }
+        assertTrue(map.isEmpty());
+        assertEquals(0, map.size());
+    }
+
+    @Test
+    public void oldVersionsAreUnchanged() {
+        Random random = new Random(2);
+        List<PersistentMap<Key, Integer>> versions = new ArrayList<>();
+        List<Map<Key, Integer>> expected = new ArrayList<>();
+        versions.add(PersistentMap.<Key, Integer>empty());
+        expected.add(new HashMap<Key, Integer>());
+        for (int i = 0; i < 2000; i++) {
+            // 从任意一个旧版本派生
+            int base = random.nextInt(versions.size());
+            PersistentMap<Key, Integer> map = versions.get(base);
+            Map<Key, Integer> reference = new HashMap<>(expected.get(base));
+            for (int j = random.nextInt(20); j >= 0; j--) {
+                Key key = randomKey(random);
+                if (random.nextInt(3) == 0) {
+                    map = map.remove(key);
+                    reference.remove(key);
+                } else {
+                    Integer value = random.nextInt();
+                    map = map.put(key, value);
+                    reference.put(key, value);
+                }
+            }
+            versions.add(map);
+            expected.add(reference);
+        }
+        for (int i = 0; i < versions.size(); i++) {
+            assertContents(expected.get(i), versions.get(i));
+        }
+    }
+
+    @Test
+    public void unchangedWritesReturnSameMap() {
+        PersistentMap<Key, Integer> map = PersistentMap.<Key, Integer>empty().put(new Key(1), 1);
+        Integer value = map.get(new Key(1));
+        assertSame(map, map.put(new Key(1), value));
+        assertSame(map, map.remove(new Key(2)));
+        assertNull(map.get(new Key(2)));
+        assertFalse(map.containsKey(new Key(2)));
+    }
+
+    @Test
+    public void diffReplaysToNewVersion() {
+        Random random = new Random(3);
+        PersistentMap<Key, Integer> base = PersistentMap.empty();
+        Map<Key, Integer> baseReference = new HashMap<>();
+        for (int i = 0; i < 20000; i++) {
+            Key key = randomKey(random);
+            Integer value = random.nextInt();
+            base = base.put(key, value);
+            baseReference.put(key, value);
+        }
+        for (int round = 0; round < 50; round++) {
+            PersistentMap<Key, Integer> changed = base;
+            Map<Key, Integer> changedReference = new HashMap<>(baseReference);
+            for (int i = random.nextInt(500); i >= 0; i--) {
+                Key key = randomKey(random);
+                if (random.nextBoolean()) {
+                    changed = changed.remove(key);
+                    changedReference.remove(key);
+                } else {
+                    Integer value = random.nextInt();
+                    changed = changed.put(key, value);
+                    changedReference.put(key, value);
+                }
+            }
+            assertEquals(changedReference, replay(baseReference, base, changed));
+            assertEquals(baseReference, replay(changedReference, changed, base));
+        }
+        assertEquals(baseReference, replay(baseReference, base, base));
+        assertEquals(baseReference, replay(new HashMap<Key, Integer>(),
+                PersistentMap.<Key, Integer>empty(), base));
+    }
+
+    @Test
+    public void fromCopiesMap() {
+        Map<Key, Integer> source = new HashMap<>();
+        for (int i = 0; i < 1000; i++) {
+            source.put(new Key(i), i);
+        }
+        assertContents(source, PersistentMap.from(source));
+    }
+
+    /**
+     * 把 diff 报告的变化应用到 oldReference 的副本上
+     */
+    private static Map<Key, Integer> replay(Map<Key, Integer> oldReference,
+            PersistentMap<Key, Integer> oldMap, PersistentMap<Key, Integer> newMap) {
+        final Map<Key, Integer> result = new HashMap<>(oldReference);
+        PersistentMap.diff(oldMap, newMap, new PersistentMap.DiffCallback<Key, Integer>() {
+            @Override
+            public void onAdded(Key key, Integer value) {
+                assertFalse("added twice: " + key, result.containsKey(key));
+                result.put(key, value);
+            }
+
+            @Override
+            public void onRemoved(Key key, Integer value) {
+                assertSame(value, result.remove(key));
+            }
+
+            @Override
+            public void onChanged(Key key, Integer oldValue, Integer newValue) {
+                assertSame(oldValue, result.put(key, newValue));
+            }
+        });
+        return result;
+    }
+
+    private static void assertContents(Map<Key, Integer> expected, PersistentMap<Key, Integer> map) {
+        assertEquals(expected.size(), map.size());
+        for (Map.Entry<Key, Integer> entry : expected.entrySet()) {
+            assertTrue(map.containsKey(entry.getKey()));
+            assertEquals(entry.getValue(), map.get(entry.getKey()));
+        }
+        Map<Key, Integer> iterated = new HashMap<>();
+        for (Map.Entry<Key, Integer> entry : map) {
+            assertNull("iterated twice: " + entry.getKey(),
+                    iterated.put(entry.getKey(), entry.getValue()));
+        }
+        assertEquals(expected, iterated);
+    }
+
+    private static Key randomKey(Random random) {
+        return new Key(random.nextInt(20000));
+    }
+
+    private static final class Key {
+        final int mId;
+
+        Key(int id) {
+            mId = id;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && ((Key) o).mId == mId;
+        }
+
+        @Override
+        public int hashCode() {
+            // hash 的范围比 id 小，有大量完全相同的 hash
+            return mId % 3000;
+        }
+
+        @Override
+        public String toString() {
+            return "Key" + mId;
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package android.arch.lifecycle;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+public class PersistentVectorTest {
+
+    @Test
+    public void matchesArrayList() {
+        Random random = new Random(1);
+        PersistentVector<Integer> vector = PersistentVector.empty();
+        List<Integer> expected = new ArrayList<>();
+        for (int i = 0; i < 100000; i++) {
+            int op = random.nextInt(10);
+            if (op < 5 || expected.isEmpty()) {
+                Integer item = random.nextInt();
+                vector = vector.add(item);
+                expected.add(item);
+            } else if (op < 8) {
+                int index = random.nextInt(expected.size());
+                Integer item = random.nextInt();
+                vector = vector.set(index, item);
+                expected.set(index, item);
+            } else {
+                vector = vector.removeLast();
+                expected.remove(expected.size() - 1);
+            }
+        }
+        assertContents(expected, vector);
+
+        while (!vector.isEmpty()) {
+            vector = vector.removeLast();
+        }
+        assertEquals(0, vector.size());
+    }
+
+    @Test
+    public void oldVersionsAreUnchanged() {
+        Random random = new Random(2);
+        List<PersistentVector<Integer>> versions = new ArrayList<>();
+        List<List<Integer>> expected = new ArrayList<>();
+        versions.add(PersistentVector.<Integer>empty());
+        expected.add(new ArrayList<Integer>());
+        for (int i = 0; i < 500; i++) {
+            // 从任意一个旧版本派生
+            int base = random.nextInt(versions.size());
+            PersistentVector<Integer> vector = versions.get(base);
+            List<Integer> reference = new ArrayList<>(expected.get(base));
+            for (int j = random.nextInt(200); j >= 0; j--) {
+                int op = random.nextInt(3);
+                Integer item = random.nextInt();
+                if (op == 0 || reference.isEmpty()) {
+                    vector = vector.add(item);
+                    reference.add(item);
+                } else if (op == 1) {
+                    int index = random.nextInt(reference.size());
+                    vector = vector.set(index, item);
+                    reference.set(index, item);
+                } else {
+                    vector = vector.removeLast();
+                    reference.remove(reference.size() - 1);
+                }
+            }
+            versions.add(vector);
+            expected.add(reference);
+        }
+        for (int i = 0; i < versions.size(); i++) {
+            assertContents(expected.get(i), versions.get(i));
+        }
+    }
+
+    @Test
+    public void unchangedSetReturnsSameVector() {
+        PersistentVector<Integer> vector = PersistentVector.from(range(0, 100));
+        assertSame(vector, vector.set(3, vector.get(3)));
+        assertSame(vector, vector.set(99, vector.get(99)));
+    }
+
+    @Test
+    public void outOfRangeIndexThrows() {
+        PersistentVector<Integer> vector = PersistentVector.from(range(0, 40));
+        for (int index : new int[]{-1, 40}) {
+            try {
+                vector.get(index);
+                fail();
+            } catch (IndexOutOfBoundsException expected) {
+            }
+        }
+        try {
+            PersistentVector.empty().removeLast();
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    @Test
+    public void diffReplaysToNewVersion() {
+        Random random = new Random(3);
+        List<Integer> baseReference = range(0, 40000);
+        PersistentVector<Integer> base = PersistentVector.from(baseReference);
+        for (int round = 0; round < 50; round++) {
+            PersistentVector<Integer> changed = base;
+            List<Integer> changedReference = new ArrayList<>(baseReference);
+            for (int i = random.nextInt(500); i >= 0; i--) {
+                int op = random.nextInt(4);
+                if (op == 0) {
+                    Integer item = random.nextInt();
+                    changed = changed.add(item);
+                    changedReference.add(item);
+                } else if (op == 1 && !changedReference.isEmpty()) {
+                    changed = changed.removeLast();
+                    changedReference.remove(changedReference.size() - 1);
+                } else if (!changedReference.isEmpty()) {
+                    int index = random.nextInt(changedReference.size());
+                    Integer item = random.nextInt();
+                    changed = changed.set(index, item);
+                    changedReference.set(index, item);
+                }
+            }
+            assertEquals(changedReference, replay(baseReference, base, changed));
+            assertEquals(baseReference, replay(changedReference, changed, base));
+        }
+
+        // 截掉大部分再加两个
+        PersistentVector<Integer> truncated = base;
+        for (int i = 0; i < 33000; i++) {
+            truncated = truncated.removeLast();
+        }
+        truncated = truncated.add(-1).add(-2);
+        List<Integer> truncatedReference = new ArrayList<>(baseReference.subList(0, 7000));
+        truncatedReference.add(-1);
+        truncatedReference.add(-2);
+        assertEquals(truncatedReference, replay(baseReference, base, truncated));
+        assertEquals(baseReference, replay(truncatedReference, truncated, base));
+    }
+
+    @Test
+    public void diffSkipsSharedChunks() {
+        PersistentVector<Integer> base = PersistentVector.from(range(0, 10000));
+        PersistentVector<Integer> changed = base.set(5000, -1);
+        final int[] calls = new int[1];
+        PersistentVector.diff(base, changed, new PersistentVector.DiffCallback<Integer>() {
+            @Override
+            public void onChanged(int index, Integer oldItem, Integer newItem) {
+                assertEquals(5000, index);
+                assertEquals(-1, newItem.intValue());
+                calls[0]++;
+            }
+
+            @Override
+            public void onInserted(int index, Integer item) {
+                fail();
+            }
+
+            @Override
+            public void onRemoved(int index, Integer item) {
+                fail();
+            }
+        });
+        assertEquals(1, calls[0]);
+    }
+
+    /**
+     * 把 diff 报告的变化应用到 oldReference 的副本上
+     */
+    private static List<Integer> replay(List<Integer> oldReference,
+            PersistentVector<Integer> oldVector, PersistentVector<Integer> newVector) {
+        final List<Integer> result = new ArrayList<>(oldReference);
+        PersistentVector.diff(oldVector, newVector, new PersistentVector.DiffCallback<Integer>() {
+            @Override
+            public void onChanged(int index, Integer oldItem, Integer newItem) {
+                assertSame(oldItem, result.set(index, newItem));
+            }
+
+            @Override
+            public void onInserted(int index, Integer item) {
+                assertEquals(result.size(), index);
+                result.add(item);
+            }
+
+            @Override
+            public void onRemoved(int index, Integer item) {
+                assertEquals(result.size() - 1, index);
+                assertSame(item, result.remove(index));
+            }
+        });
+        return result;
+    }
+
+    private static void assertContents(List<Integer> expected, PersistentVector<Integer> vector) {
+        assertEquals(expected.size(), vector.size());
+        assertTrue(vector.isEmpty() == expected.isEmpty());
+        for (int i = 0; i < expected.size(); i++) {
+            assertSame(expected.get(i), vector.get(i));
+        }
+        assertEquals(expected, vector.asList());
+        Iterator<Integer> iterator = vector.iterator();
+        for (Integer item : expected) {
+            assertTrue(iterator.hasNext());
+            assertSame(item, iterator.next());
+        }
+        assertTrue(!iterator.hasNext());
+    }
+
+    private static List<Integer> range(int from, int to) {
+        List<Integer> list = new ArrayList<>(to - from);
+        for (int i = from; i < to; i++) {
+            list.add(i);
+        }
+        return list;
+    }
+}
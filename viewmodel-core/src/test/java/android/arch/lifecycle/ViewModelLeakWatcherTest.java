@@ -0,0 +1,97 @@
+package android.arch.lifecycle;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.support.annotation.NonNull;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class ViewModelLeakWatcherTest {
+
+    static Object sLeak;
+
+    private final List<ViewModelLeakWatcher.Report> mRetained =
+            Collections.synchronizedList(new ArrayList<ViewModelLeakWatcher.Report>());
+    private final CountDownLatch mRetainedLatch = new CountDownLatch(1);
+
+    @Before
+    public void setUp() {
+        ViewModelLeakWatcher.setWatchDelay(0);
+        ViewModelLeakWatcher.setListener(new ViewModelLeakWatcher.Listener() {
+            @Override
+            public void onRetained(@NonNull ViewModelLeakWatcher.Report report) {
+                mRetained.add(report);
+                mRetainedLatch.countDown();
+            }
+
+            @Override
+            public void onForbiddenReference(@NonNull ViewModelLeakWatcher.Report report) {
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        ViewModelLeakWatcher.setListener(null);
+        ViewModelLeakWatcher.setWatchDelay(ViewModelLeakWatcher.DEFAULT_WATCH_DELAY_MILLIS);
+        ViewModelTeardown.setEnabled(false);
+        sLeak = null;
+    }
+
+    @Test
+    public void reportsRetainedViewModel() throws Exception {
+        ViewModelStore store = new ViewModelStore();
+        store.setOwnerName("MainActivity");
+        ViewModelProvider provider =
+                new ViewModelProvider(store, new ViewModelProvider.NewInstanceFactory());
+        provider.get(Plain.class);
+        sLeak = provider.get(Leaked.class);
+        store.clear();
+
+        assertTrue(mRetainedLatch.await(5, TimeUnit.SECONDS));
+        // 再等一轮检查，确认没有多报
+        Thread.sleep(300);
+        assertEquals(1, mRetained.size());
+        assertEquals(Leaked.class, mRetained.get(0).getModelClass());
+        assertEquals("MainActivity", mRetained.get(0).getOwnerName());
+    }
+
+    @Test
+    public void backgroundTeardownIsNotReportedWhileRunning() throws Exception {
+        ViewModelTeardown.setEnabled(true);
+        ViewModelStore store = new ViewModelStore();
+        new ViewModelProvider(store, new ViewModelProvider.NewInstanceFactory())
+                .get(SlowTeardown.class);
+        store.clear();
+
+        // onCleared 执行期间 teardown 线程还引用着它，不能当成泄漏
+        Thread.sleep(1500);
+        assertTrue(mRetained.toString(), mRetained.isEmpty());
+    }
+
+    public static class Plain extends ViewModel {
+    }
+
+    public static class Leaked extends ViewModel {
+    }
+
+    public static class SlowTeardown extends ViewModel implements BackgroundClearable {
+        @Override
+        protected void onCleared() {
+            try {
+                Thread.sleep(800);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
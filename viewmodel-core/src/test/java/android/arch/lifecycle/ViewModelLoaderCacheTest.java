@@ -0,0 +1,176 @@
+package android.arch.lifecycle;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ViewModelLoaderCacheTest {
+
+    private ViewModelStore mStore;
+    private ViewModelLoaderCache mCache;
+    private ExecutorService mExecutor;
+
+    @Before
+    public void setUp() {
+        mStore = new ViewModelStore();
+        mCache = ViewModelLoaderCache.of(mStore);
+        mExecutor = Executors.newFixedThreadPool(4);
+    }
+
+    @After
+    public void tearDown() {
+        mExecutor.shutdownNow();
+    }
+
+    @Test
+    public void concurrentLoadsShareOneCall() throws Exception {
+        assertSame(mCache, ViewModelLoaderCache.of(mStore));
+        BlockingLoader loader = new BlockingLoader("value");
+        Future<String> first = mCache.load("key", loader, mExecutor);
+        Future<String> second = mCache.load("key", loader, mExecutor);
+        assertNotSame(first, second);
+
+        loader.mGate.countDown();
+        assertEquals("value", first.get(5, TimeUnit.SECONDS));
+        assertEquals("value", second.get(5, TimeUnit.SECONDS));
+        // 结果缓存后直接命中
+        assertEquals("value", mCache.get("key", loader));
+        assertEquals(1, loader.mCalls.get());
+        assertEquals(1, mCache.getLoadCount());
+        assertEquals(1, mCache.getDedupCount());
+        assertEquals(1, mCache.getHitCount());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedAndExpired() throws Exception {
+        BlockingLoader loader = new BlockingLoader("value");
+        loader.mGate.countDown();
+        mCache.configure(2, 60000);
+        for (int i = 0; i < 5; i++) {
+            mCache.get("key" + i, loader);
+        }
+        assertEquals(2, mCache.size());
+        assertEquals(3, mCache.getEvictionCount());
+
+        mCache.configure(2, 0);
+        mCache.get("key4", loader);
+        assertEquals(6, loader.mCalls.get());
+    }
+
+    @Test
+    public void failedLoadIsNotCached() throws Exception {
+        final AtomicInteger calls = new AtomicInteger();
+        Callable<String> failing = new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                calls.incrementAndGet();
+                throw new IllegalStateException("boom");
+            }
+        };
+        for (int i = 0; i < 2; i++) {
+            try {
+                mCache.get("key", failing);
+                fail();
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof IllegalStateException);
+            }
+        }
+        assertEquals(2, calls.get());
+        assertEquals(0, mCache.size());
+    }
+
+    @Test
+    public void oneCallerCancellingKeepsTheLoad() throws Exception {
+        BlockingLoader loader = new BlockingLoader("value");
+        Future<String> cancelled = mCache.load("key", loader, mExecutor);
+        Future<String> waiting = mCache.load("key", loader, mExecutor);
+        assertTrue(loader.mStarted.await(5, TimeUnit.SECONDS));
+
+        assertTrue(cancelled.cancel(true));
+        assertTrue(cancelled.isCancelled());
+        try {
+            cancelled.get();
+            fail();
+        } catch (CancellationException expected) {
+        }
+
+        loader.mGate.countDown();
+        assertEquals("value", waiting.get(5, TimeUnit.SECONDS));
+        assertFalse(loader.mInterrupted);
+        assertEquals(1, loader.mCalls.get());
+    }
+
+    @Test
+    public void allCallersCancellingCancelsTheLoad() throws Exception {
+        BlockingLoader loader = new BlockingLoader("value");
+        Future<String> first = mCache.load("key", loader, mExecutor);
+        Future<String> second = mCache.load("key", loader, mExecutor);
+        assertTrue(loader.mStarted.await(5, TimeUnit.SECONDS));
+
+        first.cancel(true);
+        second.cancel(true);
+        assertTrue(loader.mInterruptedLatch.await(5, TimeUnit.SECONDS));
+
+        // 取消的加载不再被复用，下一个调用方重新加载
+        loader.mGate.countDown();
+        assertEquals("value", mCache.load("key", loader, mExecutor).get(5, TimeUnit.SECONDS));
+        assertEquals(2, loader.mCalls.get());
+    }
+
+    @Test
+    public void clearCancelsLoadsAndReleasesCache() throws Exception {
+        BlockingLoader loader = new BlockingLoader("value");
+        Future<String> future = mCache.load("key", loader, mExecutor);
+        assertTrue(loader.mStarted.await(5, TimeUnit.SECONDS));
+
+        mStore.clear();
+        assertTrue(future.isCancelled());
+        assertTrue(loader.mInterruptedLatch.await(5, TimeUnit.SECONDS));
+        assertEquals(0, mCache.size());
+        assertNotSame(mCache, ViewModelLoaderCache.of(mStore));
+    }
+
+    private static final class BlockingLoader implements Callable<String> {
+        final String mValue;
+        final AtomicInteger mCalls = new AtomicInteger();
+        final CountDownLatch mStarted = new CountDownLatch(1);
+        final CountDownLatch mGate = new CountDownLatch(1);
+        final CountDownLatch mInterruptedLatch = new CountDownLatch(1);
+        volatile boolean mInterrupted;
+
+        BlockingLoader(String value) {
+            mValue = value;
+        }
+
+        @Override
+        public String call() throws Exception {
+            mCalls.incrementAndGet();
+            mStarted.countDown();
+            try {
+                mGate.await();
+            } catch (InterruptedException e) {
+                mInterrupted = true;
+                mInterruptedLatch.countDown();
+                throw e;
+            }
+            return mValue;
+        }
+    }
+}
@@ -0,0 +1,311 @@
+package android.arch.lifecycle;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import android.support.annotation.NonNull;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+public class ViewModelSavedStateTest {
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private ExecutorService mSpillExecutor;
+    private File mSpillDirectory;
+
+    @Before
+    public void setUp() throws IOException {
+        mSpillDirectory = mFolder.newFolder("viewmodel-state");
+        mSpillExecutor = Executors.newSingleThreadExecutor();
+        ViewModelStateSpill.setExecutor(mSpillExecutor);
+    }
+
+    @After
+    public void tearDown() {
+        ViewModelStateSpill.setDirectory((File) null);
+        ViewModelStateSpill.setExecutor(null);
+        mSpillExecutor.shutdownNow();
+    }
+
+    @Test
+    public void roundTrip() {
+        ViewModelStore store = new ViewModelStore();
+        ViewModelProvider provider = provider(store);
+        assertNull(store.saveState());
+
+        provider.get(Plain.class);
+        Text text = provider.get(Text.class);
+        text.set("hello");
+        byte[] first = store.saveState();
+
+        // 版本号没变时复用上一次的快照，不再调用 saveState
+        assertSame(first, store.saveState());
+        assertEquals(1, text.mSaves);
+
+        text.set("world");
+        byte[] second = store.saveState();
+        assertNotSame(first, second);
+        assertEquals(2, text.mSaves);
+
+        // 进程被杀后重建
+        ViewModelStore restored = new ViewModelStore();
+        restored.restoreState(second);
+        // 还没有取回的状态原样保存
+        assertSame(second, restored.saveState());
+        assertEquals("world", provider(restored).get(Text.class).mText);
+    }
+
+    @Test
+    public void malformedSnapshotIsDiscarded() {
+        ViewModelStore store = new ViewModelStore();
+        provider(store).get(Text.class).set("hello");
+        byte[] snapshot = store.saveState();
+
+        // 截断的快照和长度字段被改坏的快照都不抛出异常，ViewModel 不带状态重新创建
+        byte[] truncated = Arrays.copyOf(snapshot, snapshot.length - 2);
+        ViewModelStore restored = new ViewModelStore();
+        assertFalse(restored.restoreState(truncated));
+        assertEquals("", provider(restored).get(Text.class).mText);
+
+        byte[] corrupted = snapshot.clone();
+        corrupted[corrupted.length - 8] = (byte) 0x7f;
+        ViewModelStore restoredCorrupted = new ViewModelStore();
+        assertFalse(restoredCorrupted.restoreState(corrupted));
+        assertEquals("", provider(restoredCorrupted).get(Text.class).mText);
+
+        assertTrue(new ViewModelStore().restoreState(snapshot));
+    }
+
+    @Test
+    public void restoreThroughSavedStateFactory() {
+        ViewModelStore store = new ViewModelStore();
+        provider(store).get(Text.class).set("world");
+        byte[] snapshot = store.saveState();
+
+        ViewModelStore restored = new ViewModelStore();
+        restored.restoreState(snapshot);
+        Text text = new ViewModelProvider(restored, new SavedStateFactory() {
+            @NonNull
+            @Override
+            public <T extends ViewModel> T create(@NonNull Class<T> modelClass) {
+                throw new AssertionError("state not handed to the factory");
+            }
+
+            @NonNull
+            @Override
+            public <T extends ViewModel> T create(@NonNull Class<T> modelClass,
+                    @NonNull DataInput state) throws IOException {
+                Text viewModel = new Text();
+                viewModel.mText = "factory:" + state.readUTF();
+                //noinspection unchecked
+                return (T) viewModel;
+            }
+        }).get(Text.class);
+        assertEquals("factory:world", text.mText);
+    }
+
+    @Test
+    public void secondRestoreIsIgnored() {
+        ViewModelStore store = new ViewModelStore();
+        Text text = provider(store).get(Text.class);
+        text.set("old");
+        byte[] old = store.saveState();
+        text.set("new");
+        byte[] current = store.saveState();
+
+        ViewModelStore restored = new ViewModelStore();
+        restored.restoreState(current);
+        // 配置改变后同一个 store 又收到一次更早的快照
+        restored.restoreState(old);
+        assertEquals("new", provider(restored).get(Text.class).mText);
+    }
+
+    @Test
+    public void evictedViewModelKeepsStateButIsCollectable() throws Exception {
+        ViewModelStore store = new ViewModelStore();
+        store.setEvictionPolicy(ViewModelEvictionPolicy.LRU);
+        // 打开状态保存
+        assertNull(store.saveState());
+        ReconstructibleText text = provider(store).get(ReconstructibleText.class);
+        text.set("kept");
+        WeakReference<ReconstructibleText> reference = new WeakReference<>(text);
+        //noinspection UnusedAssignment
+        text = null;
+
+        assertEquals(1, store.trim(1f));
+        for (int i = 0; i < 50 && reference.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertNull("evicted ViewModel is still reachable", reference.get());
+
+        assertEquals("kept", provider(store).get(ReconstructibleText.class).mText);
+    }
+
+    @Test
+    public void largeStateSpillsToDisk() throws Exception {
+        ViewModelStateSpill.setDirectory(mSpillDirectory);
+        ViewModelStore store = new ViewModelStore();
+        Blob blob = provider(store).get(Blob.class);
+        byte[] data = new byte[100000];
+        data[data.length - 1] = 7;
+        blob.set(data);
+
+        byte[] snapshot = store.saveState();
+        assertTrue("state not spilled: " + snapshot.length, snapshot.length < 200);
+        drainSpill();
+        assertEquals(1, mSpillDirectory.listFiles().length);
+
+        ViewModelStore restored = new ViewModelStore();
+        restored.restoreState(snapshot);
+        Blob restoredBlob = provider(restored).get(Blob.class);
+        assertArrayEquals(data, restoredBlob.mData);
+
+        // 新的状态写入新文件，旧文件删除
+        restoredBlob.set(new byte[50000]);
+        restored.saveState();
+        drainSpill();
+        assertEquals(1, mSpillDirectory.listFiles().length);
+
+        // owner 真正销毁，文件不再需要
+        restored.clear();
+        store.clear();
+        drainSpill();
+        assertEquals(0, mSpillDirectory.listFiles().length);
+
+        // 文件不在了，重新创建的 ViewModel 没有状态
+        ViewModelStore missing = new ViewModelStore();
+        missing.restoreState(snapshot);
+        assertEquals(0, provider(missing).get(Blob.class).mData.length);
+    }
+
+    @Test
+    public void restoreDoesNotWaitForPendingWrites() throws Exception {
+        ViewModelStateSpill.setDirectory(mSpillDirectory);
+        ViewModelStore store = new ViewModelStore();
+        Blob blob = provider(store).get(Blob.class);
+        byte[] data = new byte[100000];
+        data[0] = 3;
+        blob.set(data);
+        byte[] snapshot = store.saveState();
+        drainSpill();
+
+        // 写文件的线程被占住，恢复时的读取不能排在它后面
+        final CountDownLatch release = new CountDownLatch(1);
+        mSpillExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        try {
+            ViewModelStore restored = new ViewModelStore();
+            restored.restoreState(snapshot);
+            assertArrayEquals(data, provider(restored).get(Blob.class).mData);
+        } finally {
+            release.countDown();
+        }
+    }
+
+    private void drainSpill() throws Exception {
+        mSpillExecutor.submit(new Runnable() {
+            @Override
+            public void run() {
+            }
+        }).get(5, TimeUnit.SECONDS);
+    }
+
+    private static ViewModelProvider provider(ViewModelStore store) {
+        return new ViewModelProvider(store, new ViewModelProvider.NewInstanceFactory());
+    }
+
+    public static class Plain extends ViewModel {
+    }
+
+    public static class Text extends ViewModel implements SavedStateViewModel {
+        String mText = "";
+        int mVersion;
+        int mSaves;
+
+        void set(String text) {
+            mText = text;
+            mVersion++;
+        }
+
+        @Override
+        public int getStateVersion() {
+            return mVersion;
+        }
+
+        @Override
+        public void saveState(@NonNull DataOutput out) throws IOException {
+            mSaves++;
+            out.writeUTF(mText);
+        }
+
+        @Override
+        public void restoreState(@NonNull DataInput in) throws IOException {
+            mText = in.readUTF();
+        }
+    }
+
+    public static class ReconstructibleText extends Text implements Reconstructible {
+        @Override
+        public long getEstimatedSize() {
+            return 10;
+        }
+    }
+
+    public static class Blob extends ViewModel implements SavedStateViewModel {
+        byte[] mData = new byte[0];
+        int mVersion;
+
+        void set(byte[] data) {
+            mData = data;
+            mVersion++;
+        }
+
+        @Override
+        public int getStateVersion() {
+            return mVersion;
+        }
+
+        @Override
+        public void saveState(@NonNull DataOutput out) throws IOException {
+            out.writeInt(mData.length);
+            out.write(mData);
+        }
+
+        @Override
+        public void restoreState(@NonNull DataInput in) throws IOException {
+            mData = new byte[in.readInt()];
+            in.readFully(mData);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package android.arch.lifecycle;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class ViewModelStoreEvictionTest {
+
+    private ViewModelStore mStore;
+    private ViewModelProvider mProvider;
+
+    @Before
+    public void setUp() {
+        mStore = new ViewModelStore();
+        mStore.setEvictionPolicy(ViewModelEvictionPolicy.LRU);
+        mProvider = new ViewModelProvider(mStore, new ViewModelProvider.NewInstanceFactory());
+    }
+
+    @Test
+    public void trimEvictsLeastRecentlyUsedReconstructible() {
+        First first = mProvider.get(First.class);
+        Second second = mProvider.get(Second.class);
+        Pinned pinned = mProvider.get(Pinned.class);
+        mProvider.get(First.class);
+
+        assertEquals(1, mStore.trim(0.5f));
+        assertEquals(0, first.mCleared);
+        assertEquals(1, second.mCleared);
+        assertSame(first, mProvider.get(First.class));
+        assertNotSame(second, mProvider.get(Second.class));
+
+        // 没有实现 Reconstructible 的 ViewModel 从不回收
+        assertEquals(2, mStore.trim(1f));
+        assertSame(pinned, mProvider.get(Pinned.class));
+    }
+
+    @Test
+    public void getExistingCountsAsAccess() {
+        First first = mProvider.get(First.class);
+        Second second = mProvider.get(Second.class);
+        // 只通过 getExisting 访问（层级查找命中缓存时就是这样），first 也变成最近使用的
+        assertSame(first, mStore.getExisting(ViewModelProvider.defaultKey(First.class), First.class));
+        assertNull(mStore.getExisting(ViewModelProvider.defaultKey(First.class), Second.class));
+
+        assertEquals(1, mStore.trim(0.5f));
+        assertEquals(0, first.mCleared);
+        assertEquals(1, second.mCleared);
+    }
+
+    @Test
+    public void trimWithoutPolicyDoesNothing() {
+        ViewModelStore store = new ViewModelStore();
+        First first = new ViewModelProvider(store, new ViewModelProvider.NewInstanceFactory())
+                .get(First.class);
+        assertEquals(0, store.trim(1f));
+        assertEquals(0, first.mCleared);
+
+        mProvider.get(First.class);
+        mStore.setEvictionPolicy(null);
+        assertEquals(0, mStore.trim(1f));
+    }
+
+    @Test
+    public void startedOwnerBlocksTrim() {
+        First first = mProvider.get("first", First.class);
+
+        mStore.onOwnerStarted();
+        ViewModelStore.trimAll(1f);
+        assertSame(first, mStore.get("first"));
+
+        mStore.onOwnerStopped();
+        ViewModelStore.trimAll(1f);
+        assertNull(mStore.get("first"));
+        assertEquals(1, first.mCleared);
+    }
+
+    @Test
+    public void clearedStoreIsNotTrimmed() {
+        First first = mProvider.get(First.class);
+        mStore.clear();
+        assertEquals(1, first.mCleared);
+        assertEquals(0, mStore.trim(1f));
+        assertEquals(1, first.mCleared);
+    }
+
+    public static class First extends ViewModel implements Reconstructible {
+        int mCleared;
+
+        @Override
+        public long getEstimatedSize() {
+            return 10;
+        }
+
+        @Override
+        protected void onCleared() {
+            mCleared++;
+        }
+    }
+
+    public static class Second extends First {
+    }
+
+    public static class Pinned extends ViewModel {
+    }
+}
@@ -0,0 +1,271 @@
+package android.arch.lifecycle;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import android.support.annotation.NonNull;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ViewModelStoreTest {
+
+    private static final AtomicInteger sCreated = new AtomicInteger();
+
+    private ExecutorService mExecutor;
+
+    @Before
+    public void setUp() {
+        sCreated.set(0);
+        mExecutor = Executors.newFixedThreadPool(16);
+    }
+
+    @After
+    public void tearDown() {
+        mExecutor.shutdownNow();
+    }
+
+    @Test
+    public void putAndGet() {
+        ViewModelStore store = new ViewModelStore();
+        List<CountingViewModel> viewModels = new ArrayList<>();
+        // 超过紧凑数组的容量，换成 ConcurrentHashMap 之后结果不变
+        for (int i = 0; i < 20; i++) {
+            CountingViewModel viewModel = new CountingViewModel();
+            viewModels.add(viewModel);
+            store.put(new String("key" + i), viewModel);
+        }
+        for (int i = 0; i < 20; i++) {
+            assertSame(viewModels.get(i), store.get("key" + i));
+        }
+        assertEquals(20, store.size());
+
+        store.put("key3", new CountingViewModel());
+        assertEquals(1, viewModels.get(3).mCleared);
+
+        store.clear();
+        assertEquals(0, store.size());
+        assertNull(store.get("key0"));
+        assertEquals(1, viewModels.get(0).mCleared);
+    }
+
+    @Test
+    public void smallStoreReplaceAndClear() {
+        ViewModelStore store = new ViewModelStore();
+        CountingViewModel first = new CountingViewModel();
+        CountingViewModel second = new CountingViewModel();
+        store.put("key", first);
+        store.put("key", second);
+        assertEquals(1, first.mCleared);
+        assertSame(second, store.get("key"));
+        assertEquals(1, store.size());
+
+        store.clear();
+        assertEquals(1, second.mCleared);
+        assertNull(store.get("key"));
+    }
+
+    @Test
+    public void registerOwnerOncePerInstance() {
+        ViewModelStore store = new ViewModelStore();
+        Object owner = new Object();
+        assertTrue(store.registerOwner(owner));
+        assertFalse(store.registerOwner(owner));
+        // 配置改变后的新实例重新注册
+        Object recreated = new Object();
+        assertTrue(store.registerOwner(recreated));
+        assertFalse(store.registerOwner(recreated));
+    }
+
+    @Test
+    public void concurrentGetCreatesOnce() throws Exception {
+        final ViewModelStore store = new ViewModelStore();
+        final ViewModelProvider provider =
+                new ViewModelProvider(store, new ViewModelProvider.NewInstanceFactory());
+        final CountDownLatch go = new CountDownLatch(1);
+        List<Future<SlowViewModel>> futures = new ArrayList<>();
+        for (int i = 0; i < 64; i++) {
+            futures.add(mExecutor.submit(new Callable<SlowViewModel>() {
+                @Override
+                public SlowViewModel call() throws Exception {
+                    go.await();
+                    return provider.get(SlowViewModel.class);
+                }
+            }));
+        }
+        go.countDown();
+        SlowViewModel first = futures.get(0).get(5, TimeUnit.SECONDS);
+        for (Future<SlowViewModel> future : futures) {
+            assertSame(first, future.get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(1, sCreated.get());
+    }
+
+    @Test
+    public void clearDuringCreationDropsCreatedViewModel() throws Exception {
+        final ViewModelStore store = new ViewModelStore();
+        final CountDownLatch creating = new CountDownLatch(1);
+        final CountDownLatch cleared = new CountDownLatch(1);
+        Future<CountingViewModel> future = mExecutor.submit(new Callable<CountingViewModel>() {
+            @Override
+            public CountingViewModel call() {
+                return store.getOrCreate("key", CountingViewModel.class,
+                        new ViewModelProvider.Factory() {
+                            @NonNull
+                            @Override
+                            public <T extends ViewModel> T create(@NonNull Class<T> modelClass) {
+                                creating.countDown();
+                                try {
+                                    cleared.await();
+                                } catch (InterruptedException e) {
+                                    throw new RuntimeException(e);
+                                }
+                                //noinspection unchecked
+                                return (T) new CountingViewModel();
+                            }
+                        });
+            }
+        });
+        assertTrue(creating.await(5, TimeUnit.SECONDS));
+        store.clear();
+        cleared.countDown();
+
+        // 创建开始于上一个 generation，结果不放入 store 并立即 clear
+        CountingViewModel created = future.get(5, TimeUnit.SECONDS);
+        assertEquals(1, created.mCleared);
+        assertNull(store.get("key"));
+
+        CountingViewModel recreated = new ViewModelProvider(store,
+                new ViewModelProvider.NewInstanceFactory()).get("key", CountingViewModel.class);
+        assertSame(recreated, store.get("key"));
+        assertEquals(0, recreated.mCleared);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void recursiveCreationFails() {
+        final ViewModelStore store = new ViewModelStore();
+        new ViewModelProvider(store, new ViewModelProvider.Factory() {
+            @NonNull
+            @Override
+            public <T extends ViewModel> T create(@NonNull Class<T> modelClass) {
+                return new ViewModelProvider(store, this).get(modelClass);
+            }
+        }).get(CountingViewModel.class);
+    }
+
+    @Test
+    public void nullFactoryResultFails() {
+        ViewModelStore store = new ViewModelStore();
+        try {
+            new ViewModelProvider(store, new ViewModelProvider.Factory() {
+                @NonNull
+                @Override
+                public <T extends ViewModel> T create(@NonNull Class<T> modelClass) {
+                    //noinspection ConstantConditions
+                    return null;
+                }
+            }).get("key", CountingViewModel.class);
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+        // 失败的创建不留下任何东西，之后可以正常创建
+        assertNull(store.get("key"));
+        CountingViewModel created = new ViewModelProvider(store,
+                new ViewModelProvider.NewInstanceFactory()).get("key", CountingViewModel.class);
+        assertSame(created, store.get("key"));
+    }
+
+    @Test
+    public void crossKeyCycleFailsInsteadOfDeadlocking() throws Exception {
+        final ViewModelStore store = new ViewModelStore();
+        final CountDownLatch started = new CountDownLatch(2);
+        final ViewModelProvider.Factory factory = new ViewModelProvider.Factory() {
+            @NonNull
+            @Override
+            public <T extends ViewModel> T create(@NonNull Class<T> modelClass) {
+                // 两个线程都开始创建之后再去获取对方
+                started.countDown();
+                try {
+                    started.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                ViewModelProvider provider = new ViewModelProvider(store, this);
+                if (modelClass == A.class) {
+                    provider.get(B.class);
+                } else {
+                    provider.get(A.class);
+                }
+                return new ViewModelProvider.NewInstanceFactory().create(modelClass);
+            }
+        };
+        Future<A> a = mExecutor.submit(new Callable<A>() {
+            @Override
+            public A call() {
+                return new ViewModelProvider(store, factory).get(A.class);
+            }
+        });
+        Future<B> b = mExecutor.submit(new Callable<B>() {
+            @Override
+            public B call() {
+                return new ViewModelProvider(store, factory).get(B.class);
+            }
+        });
+        int failed = 0;
+        for (Future<?> future : new Future<?>[]{a, b}) {
+            try {
+                future.get(5, TimeUnit.SECONDS);
+            } catch (ExecutionException e) {
+                if (!(e.getCause() instanceof IllegalStateException)) {
+                    throw e;
+                }
+                failed++;
+            }
+        }
+        if (failed == 0) {
+            fail("cycle not detected");
+        }
+    }
+
+    public static class CountingViewModel extends ViewModel {
+        int mCleared;
+
+        @Override
+        protected void onCleared() {
+            mCleared++;
+        }
+    }
+
+    public static class SlowViewModel extends ViewModel {
+        public SlowViewModel() {
+            sCreated.incrementAndGet();
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    public static class A extends ViewModel {
+    }
+
+    public static class B extends ViewModel {
+    }
+}